@@ -286,6 +286,30 @@
 (def! AbstractPoint.getLocation (java org.sphaerica.worksheet.AbstractPoint getLocation ()))
 (def! FreePoint.setLocation (java org.sphaerica.worksheet.FreePoint setLocation (org.sphaerica.math.UnitVector)))
 
+;; moves a free point to a new location. the move can be undone.
+(def! move (lambda (p v) ((java org.sphaerica.worksheet.WorksheetWorker move (org.sphaerica.worksheet.FreePoint org.sphaerica.math.UnitVector)) &worker p v)))
+
+;; moves a parametric point along its curve. the move can be undone.
+(def! move-param (lambda (p t) ((java org.sphaerica.worksheet.WorksheetWorker move (org.sphaerica.worksheet.ParametricPoint double)) &worker p t)))
+
+;;
+;; TRANSACTIONS
+;;
+
+;; changes between begin and commit are undone together, objects are updated and listeners are notified once on commit.
+(def! begin-transaction (lambda () ((java org.sphaerica.worksheet.WorksheetWorker begin ()) &worker)))
+(def! commit-transaction (lambda () ((java org.sphaerica.worksheet.WorksheetWorker commit ()) &worker)))
+
+;; evaluates all forms in a single transaction. returns value of last form.
+;; the transaction is committed even if a form fails.
+;; example: (transaction (segment a b) (segment b c))
+(def! transaction (macro $tx ((lambda ($b)
+   (unwind-protect
+      ((lambda ($loop) ($loop $loop $tx nil))
+       (lambda ($self $f $r) (if $f ($self $self (cdr $f) (eval (car $f))) $r)))
+      (commit-transaction)))
+   (begin-transaction))))
+
 ;; PHYSICS modelling
 (def! physics (lambda ()
    (let(pts         (freepoints)
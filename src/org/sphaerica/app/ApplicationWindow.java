@@ -138,7 +138,7 @@ public class ApplicationWindow extends JFrame implements ActionListener,
         if (action.equals("zoom")) {
             editor.getArcBall().setScale(
                     ((NextSlider) e.getSource()).getValue());
-            editor.repaint();
+            editor.requestFrame();
         } else if (action.equals("undo"))
             worker.getUndoable().undo();
         else if (action.equals("redo"))
@@ -203,9 +203,9 @@ public class ApplicationWindow extends JFrame implements ActionListener,
 
     @Override
     public void stateChanged(ChangeEvent e) {
-        // we need to repaint the display asap. TODO: experiment by adjusting
-        // values..
-        editor.repaint(1000);
+        if (e instanceof WorksheetChangeEvent && ((WorksheetChangeEvent) e).isEmpty())
+            return;
+        editor.requestFrame();
     }
 
     /**
@@ -26,6 +26,7 @@ public class DummyVisitorPainter implements SphericalObjectVisitor,
     private final Deque<PaintRecord> deck;
     private final ArcBall ball;
     private final Projection proj;
+    private final Tessellator tessellator;
 
     /**
      * Constructs the visitor using the predefined arcball and projection. The
@@ -35,9 +36,11 @@ public class DummyVisitorPainter implements SphericalObjectVisitor,
      * @param deck       double ended queue for the layers of the sphere, not null
      * @param ball       arcball used by the user, not null
      * @param projection projection used with this painter, not null
+     * @param tolerance  largest error of the approximated curves on the
+     *                   screen in pixels
      */
     DummyVisitorPainter(Deque<PaintRecord> deck, ArcBall ball,
-                        Projection projection) {
+                        Projection projection, double tolerance) {
         if (deck == null)
             throw new IllegalArgumentException("null deck param is forbidden.");
         if (ball == null)
@@ -49,6 +52,7 @@ public class DummyVisitorPainter implements SphericalObjectVisitor,
         this.deck = deck;
         this.ball = ball;
         this.proj = projection;
+        this.tessellator = new Tessellator(ball, projection, tolerance);
     }
 
     @Override
@@ -72,8 +76,8 @@ public class DummyVisitorPainter implements SphericalObjectVisitor,
                 2 * ps, 2 * ps);
 
         deck.add(new PaintRecord(sh, pc));
-        deck.add(new PaintRecord(new BasicStroke(1).createStrokedShape(sh), pc
-                .darker()));
+        deck.add(new PaintRecord(PainterHelper.stroke(1).createStrokedShape(sh),
+                PainterHelper.darker(pc)));
     }
 
     /**
@@ -87,6 +91,22 @@ public class DummyVisitorPainter implements SphericalObjectVisitor,
         return proj.onPlane(ball.doRotation(vector.toArray()));
     }
 
+    /**
+     * Samples a closed curve along a full turn from the given parameter back
+     * to it, rotates the samples by the arcball and projects them. The
+     * samples are refined until the chords are within the tolerance of the
+     * tessellator on the screen.
+     *
+     * @param curve   closed curve to sample
+     * @param start   parameter of the first and the last sample
+     * @param forward the direction of the walk along the curve
+     * @return projected coordinates, three for each sample
+     */
+    final double[] onPlaneLoop(AbstractCurve curve, double start,
+                               boolean forward) {
+        return tessellator.loop(curve, start, forward);
+    }
+
     @Override
     public void visit(LineSegment segment) {
 
@@ -165,28 +185,29 @@ public class DummyVisitorPainter implements SphericalObjectVisitor,
     }
 
     /**
-     * Creates stroke for given object. This method uses the calculateSize
+     * Returns the stroke for given object. This method uses the calculateSize
      * method for stroke size.
      *
      * @param obj object to paint with stroke
      * @return Stroke instance for object
      */
     final Stroke stroke(SphericalObject obj) {
-        return new BasicStroke(calculateSize(obj));
+        return PainterHelper.stroke(calculateSize(obj));
     }
 
     @Override
     public void visit(Polygon poly) {
 
         AbstractPoint[] points = poly.getPoints();
+        int[] triangles = poly.getTriangles();
         Color frontColor = (Color) poly.getAppearance().get("color");
         Color backColor = PainterHelper.backfaceColor(frontColor);
 
         Shape front = null, back = null;
 
-        for (int i = 0; i < points.length - 2; i++) {
-            UnitVector a = points[i].getLocation(), b = points[i + 1]
-                    .getLocation(), c = points[i + 2].getLocation();
+        for (int i = 0; i < triangles.length; i += 3) {
+            UnitVector a = points[triangles[i]].getLocation(), b = points[triangles[i + 1]]
+                    .getLocation(), c = points[triangles[i + 2]].getLocation();
 
             if (!SphericalMath.isCounterClockwise(a, b, c)) {
                 UnitVector t = a;
@@ -0,0 +1,154 @@
+package org.sphaerica.display;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+/**
+ * Schedules the frames of a display. Requests of frames are coalesced: at most
+ * one frame is painted in every interval, showing the state at the time it is
+ * painted. The scheduler also measures the time of painting the frames, and
+ * switches to the cheaper quality tier while they take longer than the
+ * budget.
+ * <p>
+ * While the user interacts with the display, frames slower than a quarter of
+ * the budget are followed by previews. When the interaction stops for a
+ * while, the display is painted again in the normal tier.
+ * <p>
+ * The scheduler is used on the event dispatch thread only.
+ */
+final class FrameScheduler implements ActionListener {
+
+    /**
+     * Shortest time between the start of two frames in milliseconds.
+     */
+    final static int INTERVAL = 16;
+
+    /**
+     * Budget of painting a frame in nanoseconds.
+     */
+    private final static long BUDGET = INTERVAL * 1000000L;
+
+    /**
+     * Weight of the last frame in the average time of painting.
+     */
+    private final static double WEIGHT = 0.25;
+
+    /**
+     * Number of frames painted at a tier before changing it again. Changing
+     * to the finer tier paints all objects again, so its first frames are
+     * slow.
+     */
+    private final static int SETTLE = 30;
+
+    /**
+     * Time after the last interaction when it ends, in milliseconds.
+     */
+    private final static int IDLE = 250;
+
+    private final JComponent display;
+
+    private final Timer timer = new Timer(INTERVAL, this);
+
+    /**
+     * Ends the interaction.
+     */
+    private final Timer idle = new Timer(IDLE, new ActionListener() {
+        public void actionPerformed(ActionEvent e) {
+            interacting = false;
+            if (preview) {
+                preview = false;
+                request();
+            }
+        }
+    });
+
+    private boolean interacting = false, preview = false;
+
+    /**
+     * Start of the last frame, from System.nanoTime().
+     */
+    private long start = System.nanoTime() - BUDGET;
+
+    private double average = 0;
+    private int frames = 0;
+    private Quality quality = Quality.FULL;
+
+    FrameScheduler(JComponent display) {
+        this.display = display;
+        timer.setRepeats(false);
+        idle.setRepeats(false);
+    }
+
+    /**
+     * Requests a frame. The frame is painted after the end of the interval of
+     * the last frame, requests made until then are served by the same frame.
+     */
+    void request() {
+        if (timer.isRunning())
+            return;
+        final long wait = (start + BUDGET - System.nanoTime()) / 1000000L;
+        timer.setInitialDelay((int) Math.max(0, wait));
+        timer.start();
+    }
+
+    /**
+     * Tells that the user is rotating the sphere or dragging an object. The
+     * interaction lasts until no more of these calls come for a while.
+     */
+    void interacted() {
+        interacting = true;
+        idle.restart();
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        display.repaint();
+    }
+
+    /**
+     * Tells that a frame is being painted. The frame serves all requests
+     * made so far.
+     */
+    void frameStarted() {
+        timer.stop();
+        start = System.nanoTime();
+    }
+
+    /**
+     * Tells that the painting of the frame started last is done, and updates
+     * the quality tier from the average time of the frames.
+     */
+    void frameDone() {
+        // previews tell nothing about the time of the normal frames.
+        if (preview)
+            return;
+
+        final long time = System.nanoTime() - start;
+        average = frames == 0 ? time : average + WEIGHT * (time - average);
+        if (interacting && average > BUDGET / 4) {
+            preview = true;
+            return;
+        }
+        if (++frames < SETTLE)
+            return;
+
+        // the cheap tier is left only if the frames are well within budget.
+        if (quality == Quality.FULL && average > BUDGET)
+            setQuality(Quality.FAST);
+        else if (quality == Quality.FAST && average < BUDGET / 4)
+            setQuality(Quality.FULL);
+    }
+
+    private void setQuality(Quality q) {
+        quality = q;
+        frames = 0;
+    }
+
+    /**
+     * @return quality tier to paint the next frame with.
+     */
+    Quality getQuality() {
+        return preview ? Quality.PREVIEW : quality;
+    }
+}
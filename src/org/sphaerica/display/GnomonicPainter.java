@@ -2,6 +2,7 @@ package org.sphaerica.display;
 
 import org.sphaerica.display.SphereDisplayPanel.PaintRecord;
 import org.sphaerica.math.ArcBall;
+import org.sphaerica.math.Cap;
 import org.sphaerica.math.Projection;
 import org.sphaerica.math.UnitVector;
 import org.sphaerica.math.Vector3D;
@@ -32,8 +33,9 @@ public final class GnomonicPainter implements ProjectionPainter {
     }
 
     @Override
-    public SphericalObjectVisitor createVisitorPainter(final Deque<PaintRecord> deque) {
-        return new DummyVisitorPainter(deque, ball, getProjection()) {
+    public SphericalObjectVisitor createVisitorPainter(
+            final Deque<PaintRecord> deque, double tolerance) {
+        return new DummyVisitorPainter(deque, ball, getProjection(), tolerance) {
 
             public void visit(Circle circle) {
                 final Color color = color(circle);
@@ -88,7 +90,6 @@ public final class GnomonicPainter implements ProjectionPainter {
 
             private Shape handleCurve(AbstractCurve curve, boolean front) {
 
-                int steps = 60;
                 double s = ball.getScale();
 
                 Path2D path = new Path2D.Double();
@@ -96,30 +97,27 @@ public final class GnomonicPainter implements ProjectionPainter {
                 double start = curve.fInverse(ball
                         .doInverseTransformation(new Vector3D(0, 0, front ? -1
                                 : +1)));
-                double[] latest = super.onPlaneCoords(curve.f(start));
-                for (int i = 0; i < steps; i++) {
-                    double x = start + 1.0 * i / steps;
-                    final UnitVector current = curve.f(x);
-                    double[] temp = super.onPlaneCoords(current);
-
-                    if (temp[2] < 0 == front) {
-                        latest = temp;
+                final double[] temp = super.onPlaneLoop(curve, start, true);
+
+                // position of the previous sample in the buffer, the last
+                // sample repeating the first one is left out
+                int latest = 0;
+                for (int i = 0; i < temp.length - 3; latest = i, i += 3) {
+                    final double x = temp[i], y = temp[i + 1];
+
+                    if (temp[i + 2] < 0 == front)
                         continue;
-                    }
-                    if (temp[0] * temp[0] + temp[1] * temp[1] > 1000000) {
-                        latest = temp;
+                    if (x * x + y * y > 1000000)
                         continue;
-                    }
 
-                    if (latest[0] * temp[0] + latest[1] * temp[1] < 10000
+                    if (temp[latest] * x + temp[latest + 1] * y < 10000
                             && path.getCurrentPoint() != null)
-                        path.lineTo(temp[0] * s, temp[1] * s);
+                        path.lineTo(x * s, y * s);
                     else
-                        path.moveTo(temp[0] * s, temp[1] * s);
-                    latest = temp;
+                        path.moveTo(x * s, y * s);
                 }
 
-                if (latest[2] > 0 == front)
+                if (temp[latest + 2] > 0 == front)
                     path.closePath();
                 return path;
             }
@@ -132,8 +130,26 @@ public final class GnomonicPainter implements ProjectionPainter {
         return null;
     }
 
+    /**
+     * The disk of the screen is the image of a cap around the point
+     * projected to the center and of the antipodal cap.
+     */
+    @Override
+    public boolean isVisible(Cap cap, double planeRadius) {
+        if (cap.isSphere())
+            return true;
+        final double radius = Math.atan(planeRadius);
+        return cap.intersects(new Cap(ball.doInverseTransformation(new Vector3D(0, 0, 1)), radius))
+                || cap.intersects(new Cap(ball.doInverseTransformation(new Vector3D(0, 0, -1)), radius));
+    }
+
     @Override
     public ArcBall getArcBall() {
         return ball;
     }
+
+    @Override
+    public ProjectionPainter snapshot() {
+        return new GnomonicPainter(new ArcBall(ball));
+    }
 }
@@ -0,0 +1,313 @@
+package org.sphaerica.display;
+
+import org.sphaerica.math.Cap;
+import org.sphaerica.math.UnitVector;
+import org.sphaerica.worksheet.*;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import java.util.*;
+
+/**
+ * Spatial index of the objects of a worksheet for hit testing. The sphere is
+ * divided into the cells of a grid on the faces of a cube. Points are stored
+ * in the cell of their location, curves in the cells of samples taken along
+ * them, so the objects near a location are found by looking at a few cells
+ * around it. Objects without a simple shape, like polygons, are returned as
+ * candidates if their bounding cap is close enough.
+ * <p>
+ * The faces overlap: samples near the edge of a face are also stored in the
+ * neighbouring faces, so a query only looks at the face of the location.
+ * <p>
+ * The index follows the changes of the worksheet through its change events.
+ * Curves are sampled again only on the next query, so curves moving many
+ * times between queries, like while dragging, are sampled once.
+ * It is used on the event dispatch thread only.
+ */
+final class HitIndex implements ChangeListener {
+
+    /**
+     * Number of cells along an edge of a face.
+     */
+    private final static int N = 40;
+
+    /**
+     * Faces extend over their edges by this angle.
+     */
+    private final static double MARGIN = 0.15;
+
+    /**
+     * Angular size of a cell on a face.
+     */
+    private final static double CELL = (Math.PI / 2 + 2 * MARGIN) / N;
+
+    /**
+     * Distance of samples along curves. Every point of a curve is closer than
+     * half of this to a stored sample.
+     */
+    private final static double STEP = 0.02;
+
+    /**
+     * Largest radius of a query. Must leave the query within the margin.
+     */
+    private final static double MAX_RADIUS = 0.06;
+
+    private final Worksheet sheet;
+
+    /**
+     * Objects of each cell, created on first use.
+     */
+    private final List<Set<SphericalObject>> cells = new ArrayList<Set<SphericalObject>>(6 * N * N);
+
+    /**
+     * Cells of each indexed object, empty for objects not existing at the
+     * moment.
+     */
+    private final Map<SphericalObject, int[]> cellsOf = new IdentityHashMap<SphericalObject, int[]>();
+
+    /**
+     * Objects tested by their bounding caps on every query.
+     */
+    private final Set<SphericalObject> unbounded = createSet();
+
+    /**
+     * Curves changed since their cells were computed, sampled on the next
+     * query.
+     */
+    private final Set<SphericalObject> dirty = createSet();
+
+    /**
+     * Position of the objects in the last snapshot used for ordering.
+     */
+    private Map<SphericalObject, Integer> order = new IdentityHashMap<SphericalObject, Integer>();
+    private long orderVersion = -1;
+
+    HitIndex(Worksheet sheet) {
+        this.sheet = sheet;
+        for (int i = 0; i < 6 * N * N; i++)
+            cells.add(null);
+        for (SphericalObject obj : sheet.getConstruction().snapshot())
+            insert(obj);
+        sheet.addChangeListener(this);
+    }
+
+    private static Set<SphericalObject> createSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<SphericalObject, Boolean>());
+    }
+
+    @Override
+    public void stateChanged(ChangeEvent e) {
+        if (!(e instanceof WorksheetChangeEvent)) {
+            rebuild();
+            return;
+        }
+        final WorksheetChangeEvent event = (WorksheetChangeEvent) e;
+        for (SphericalObject obj : event.getRemoved()) {
+            dirty.remove(obj);
+            remove(obj);
+        }
+        for (SphericalObject obj : event.getAdded()) {
+            remove(obj);
+            if (obj instanceof AbstractCurve) {
+                put(obj, new int[0]);
+                dirty.add(obj);
+            } else
+                insert(obj);
+        }
+        for (SphericalObject obj : event.getMoved()) {
+            if (!cellsOf.containsKey(obj) && !unbounded.contains(obj))
+                continue; // removed since
+            if (obj instanceof AbstractCurve)
+                dirty.add(obj);
+            else {
+                remove(obj);
+                insert(obj);
+            }
+        }
+    }
+
+    /**
+     * Samples the curves changed since the last query.
+     */
+    private void update() {
+        for (SphericalObject obj : dirty) {
+            remove(obj);
+            insert(obj);
+        }
+        dirty.clear();
+    }
+
+    private void rebuild() {
+        for (int i = 0; i < cells.size(); i++)
+            cells.set(i, null);
+        cellsOf.clear();
+        unbounded.clear();
+        dirty.clear();
+        for (SphericalObject obj : sheet.getConstruction().snapshot())
+            insert(obj);
+    }
+
+    /**
+     * Returns the objects possibly closer to a location than the given radius,
+     * in the order of the construction. The caller has to check the distance
+     * of the returned objects.
+     *
+     * @param loc    location on the sphere
+     * @param radius radius of the query, at most {@link #MAX_RADIUS}
+     * @return candidates in order of the snapshot of the construction
+     */
+    List<SphericalObject> near(UnitVector loc, double radius) {
+        if (radius > MAX_RADIUS)
+            throw new IllegalArgumentException("too large radius: " + radius);
+        update();
+
+        final Set<SphericalObject> found = createSet();
+        final Cap query = new Cap(loc, radius);
+        for (SphericalObject obj : unbounded)
+            if (query.intersects(obj.getBounds()))
+                found.add(obj);
+
+        final double x = loc.getX(), y = loc.getY(), z = loc.getZ();
+        final double ax = Math.abs(x), ay = Math.abs(y), az = Math.abs(z);
+        final int face;
+        if (ax >= ay && ax >= az)
+            face = x > 0 ? 0 : 1;
+        else if (ay >= az)
+            face = y > 0 ? 2 : 3;
+        else
+            face = z > 0 ? 4 : 5;
+
+        // the face coordinates change at most twice as fast as the location.
+        final int k = (int) Math.ceil(2 * (radius + STEP / 2) / CELL);
+        final int cell = cell(face, x, y, z);
+        final int i = cell / N % N, j = cell % N;
+        for (int a = Math.max(0, i - k); a <= Math.min(N - 1, i + k); a++)
+            for (int b = Math.max(0, j - k); b <= Math.min(N - 1, j + k); b++) {
+                final Set<SphericalObject> objects = cells.get((face * N + a) * N + b);
+                if (objects != null)
+                    found.addAll(objects);
+            }
+
+        final Map<SphericalObject, Integer> positions = order();
+        final List<SphericalObject> result = new ArrayList<SphericalObject>(found.size());
+        for (SphericalObject obj : found)
+            if (positions.containsKey(obj))
+                result.add(obj);
+        Collections.sort(result, new Comparator<SphericalObject>() {
+            public int compare(SphericalObject o1, SphericalObject o2) {
+                return positions.get(o1) - positions.get(o2);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return position of the objects in the current snapshot.
+     */
+    private Map<SphericalObject, Integer> order() {
+        final Worksheet.Snapshot snapshot = sheet.getConstruction().snapshot();
+        if (snapshot.getVersion() != orderVersion) {
+            order = new IdentityHashMap<SphericalObject, Integer>(snapshot.size());
+            for (int i = 0; i < snapshot.size(); i++)
+                order.put(snapshot.get(i), i);
+            orderVersion = snapshot.getVersion();
+        }
+        return order;
+    }
+
+    private void insert(SphericalObject obj) {
+        if (obj instanceof AbstractPoint) {
+            final UnitVector l = ((AbstractPoint) obj).getLocation();
+            put(obj, l == null ? new int[0] : cells(l.getX(), l.getY(), l.getZ()));
+        } else if (obj instanceof AbstractCurve) {
+            final AbstractCurve curve = (AbstractCurve) obj;
+            if (!curve.isReal()) {
+                put(obj, new int[0]);
+                return;
+            }
+            final int count = (int) Math.ceil(curve.getLength() / STEP) + 1;
+            final Set<Integer> set = new HashSet<Integer>();
+            for (int i = 0; i <= count; i++) {
+                final UnitVector v = curve.f(1.0 * i / count);
+                for (int c : cells(v.getX(), v.getY(), v.getZ()))
+                    set.add(c);
+            }
+            final int[] array = new int[set.size()];
+            int i = 0;
+            for (int c : set)
+                array[i++] = c;
+            put(obj, array);
+        } else
+            unbounded.add(obj);
+    }
+
+    private void put(SphericalObject obj, int[] indices) {
+        cellsOf.put(obj, indices);
+        for (int c : indices) {
+            Set<SphericalObject> objects = cells.get(c);
+            if (objects == null)
+                cells.set(c, objects = createSet());
+            objects.add(obj);
+        }
+    }
+
+    private void remove(SphericalObject obj) {
+        unbounded.remove(obj);
+        final int[] indices = cellsOf.remove(obj);
+        if (indices == null)
+            return;
+        for (int c : indices) {
+            final Set<SphericalObject> objects = cells.get(c);
+            objects.remove(obj);
+            if (objects.isEmpty())
+                cells.set(c, null);
+        }
+    }
+
+    /**
+     * Returns the cells of a location on all faces extending over it.
+     */
+    private static int[] cells(double x, double y, double z) {
+        final int[] result = new int[3];
+        int n = 0;
+        for (int face = 0; face < 6; face++) {
+            final int c = cell(face, x, y, z);
+            if (c >= 0)
+                result[n++] = c;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Returns the cell of a location on a face, or -1 if the face does not
+     * extend over the location. A face has the axis of its normal vector as
+     * its index halved, its sign given by the parity of the index.
+     */
+    private static int cell(int face, double x, double y, double z) {
+        final double sign = (face & 1) == 0 ? 1 : -1;
+        final double n, u, v;
+        switch (face >> 1) {
+            case 0:
+                n = sign * x;
+                u = y;
+                v = z;
+                break;
+            case 1:
+                n = sign * y;
+                u = z;
+                v = x;
+                break;
+            default:
+                n = sign * z;
+                u = x;
+                v = y;
+        }
+        if (n <= 0)
+            return -1;
+
+        final double a = Math.atan(u / n) + Math.PI / 4 + MARGIN, b = Math.atan(v / n) + Math.PI / 4 + MARGIN;
+        if (a < 0 || b < 0 || a >= N * CELL || b >= N * CELL)
+            return -1;
+        return (face * N + (int) (a / CELL)) * N + (int) (b / CELL);
+    }
+}
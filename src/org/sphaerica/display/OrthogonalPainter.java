@@ -2,6 +2,7 @@ package org.sphaerica.display;
 
 import org.sphaerica.display.SphereDisplayPanel.PaintRecord;
 import org.sphaerica.math.ArcBall;
+import org.sphaerica.math.Cap;
 import org.sphaerica.math.Projection;
 import org.sphaerica.math.SphericalMath;
 import org.sphaerica.math.UnitVector;
@@ -34,8 +35,8 @@ public final class OrthogonalPainter implements ProjectionPainter {
 
     @Override
     public SphericalObjectVisitor createVisitorPainter(
-            final Deque<PaintRecord> deque) {
-        return new DummyVisitorPainter(deque, ball, getProjection()) {
+            final Deque<PaintRecord> deque, double tolerance) {
+        return new DummyVisitorPainter(deque, ball, getProjection(), tolerance) {
 
             public Shape createCircle(UnitVector origo, double radius,
                                       boolean front) {
@@ -156,9 +157,28 @@ public final class OrthogonalPainter implements ProjectionPainter {
         return new Ellipse2D.Double(-1, -1, 2, 2);
     }
 
+    /**
+     * Both hemispheres are painted. The image of a cap is inside the disk
+     * around the image of its center with the chord of the radius.
+     */
+    @Override
+    public boolean isVisible(Cap cap, double planeRadius) {
+        if (cap.isSphere())
+            return true;
+        final double x = cap.getX(), y = cap.getY(), z = cap.getZ();
+        final double u = ball.rotatedX(x, y, z), v = ball.rotatedY(x, y, z);
+        final double chord = 2 * Math.sin(cap.getRadius() / 2);
+        return Math.sqrt(u * u + v * v) <= planeRadius + chord;
+    }
+
     @Override
     public ArcBall getArcBall() {
         return ball;
     }
 
+    @Override
+    public ProjectionPainter snapshot() {
+        return new OrthogonalPainter(new ArcBall(ball));
+    }
+
 }
@@ -1,13 +1,45 @@
 package org.sphaerica.display;
 
 import java.awt.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This helper class contains methods on painting projections of spherical
  * objects with style.
+ * <p>
+ * Strokes and derived colors are immutable, so they are interned: the same
+ * instance is returned for the same size or color. The caches are safe to use
+ * from the threads painting concurrently.
  */
 class PainterHelper {
 
+    /**
+     * The caches are dropped when they grow over this size, so animated
+     * colors do not fill them up.
+     */
+    private final static int CACHE_LIMIT = 256;
+
+    private final static Map<Integer, Stroke> strokes = new ConcurrentHashMap<Integer, Stroke>();
+    private final static Map<Color, Color> backfaces = new ConcurrentHashMap<Color, Color>();
+    private final static Map<Color, Color> darkers = new ConcurrentHashMap<Color, Color>();
+
+    /**
+     * Returns a solid stroke of the given width.
+     *
+     * @param width width of the stroke
+     * @return stroke instance shared by all callers
+     */
+    static Stroke stroke(int width) {
+        Stroke stroke = strokes.get(width);
+        if (stroke == null) {
+            if (strokes.size() > CACHE_LIMIT)
+                strokes.clear();
+            strokes.put(width, stroke = new BasicStroke(width));
+        }
+        return stroke;
+    }
+
     /**
      * Creates a dimmed version of the color that represents the same opaque
      * version of the same color visible from the hidden side of the sphere.
@@ -16,9 +48,32 @@ class PainterHelper {
      * @return same color visible from the other side of the sphere
      */
     static Color backfaceColor(Color color) {
-        int red = color.getRed() / 2 + 128;
-        int green = color.getGreen() / 2 + 128;
-        int blue = color.getBlue() / 2 + 128;
-        return new Color(red, green, blue);
+        Color result = backfaces.get(color);
+        if (result == null) {
+            int red = color.getRed() / 2 + 128;
+            int green = color.getGreen() / 2 + 128;
+            int blue = color.getBlue() / 2 + 128;
+            if (backfaces.size() > CACHE_LIMIT)
+                backfaces.clear();
+            backfaces.put(color, result = new Color(red, green, blue));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the darker version of the color, as given by
+     * {@link Color#darker()}.
+     *
+     * @param color original color
+     * @return darker color
+     */
+    static Color darker(Color color) {
+        Color result = darkers.get(color);
+        if (result == null) {
+            if (darkers.size() > CACHE_LIMIT)
+                darkers.clear();
+            darkers.put(color, result = color.darker());
+        }
+        return result;
     }
 }
@@ -1,6 +1,7 @@
 package org.sphaerica.display;
 
 import org.sphaerica.math.ArcBall;
+import org.sphaerica.math.Cap;
 import org.sphaerica.math.Projection;
 import org.sphaerica.worksheet.SphericalObjectVisitor;
 
@@ -31,10 +32,21 @@ public interface ProjectionPainter {
      * Creates a visitor that puts a projection shape to the deque for the
      * visited objects.
      *
-     * @param deque layers of the sphere
+     * @param deque     layers of the sphere
+     * @param tolerance largest error of the approximated curves on the screen
+     *                  in pixels
      * @return visitor object
      */
-    SphericalObjectVisitor createVisitorPainter(Deque<SphereDisplayPanel.PaintRecord> deque);
+    SphericalObjectVisitor createVisitorPainter(Deque<SphereDisplayPanel.PaintRecord> deque, double tolerance);
+
+    /**
+     * Returns a painter of the same projection with a copy of the current
+     * state of the arcball. Visitors of the copy may be used on other threads
+     * while the view of this painter changes.
+     *
+     * @return painter of a fixed view
+     */
+    ProjectionPainter snapshot();
 
     /**
      * Returns the shape of the projection of the sphere. If the image of the
@@ -43,4 +55,16 @@ public interface ProjectionPainter {
      * @return shape of the image of sphere or null if infinite
      */
     Shape getMapShape();
+
+    /**
+     * Decides if any part of a cap may be visible on the screen. The screen
+     * is given by the radius of the disk around the center of the projection
+     * plane covering it. Objects whose bounding cap is not visible are not
+     * painted.
+     *
+     * @param cap         cap on the unrotated sphere
+     * @param planeRadius radius of the screen on the plane of the projection
+     * @return false if the cap is surely not visible
+     */
+    boolean isVisible(Cap cap, double planeRadius);
 }
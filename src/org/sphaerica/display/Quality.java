@@ -0,0 +1,56 @@
+package org.sphaerica.display;
+
+import java.awt.*;
+
+/**
+ * Quality tiers of painting the display. The cheaper tier is used while the
+ * frames take longer than the budget of the frame scheduler, the preview
+ * while the user rotates the sphere or drags a point on a slow display.
+ */
+enum Quality {
+
+    /**
+     * Antialiased shapes, curves within half a pixel.
+     */
+    FULL(Tessellator.TOLERANCE, true, true),
+
+    /**
+     * Shapes without antialiasing, curves within two pixels.
+     */
+    FAST(2, false, true),
+
+    /**
+     * Like the fast tier, but the hidden side of the sphere is not painted.
+     */
+    PREVIEW(2, false, false);
+
+    /**
+     * Largest error of the approximated curves on the screen in pixels.
+     */
+    final double tolerance;
+
+    /**
+     * True iff the records of the hidden side of the sphere are painted.
+     */
+    final boolean backFaces;
+
+    private final boolean antialias;
+
+    Quality(double tolerance, boolean antialias, boolean backFaces) {
+        this.tolerance = tolerance;
+        this.antialias = antialias;
+        this.backFaces = backFaces;
+    }
+
+    /**
+     * Sets the rendering hints of the tier.
+     *
+     * @param g2d graphics to paint with
+     */
+    void apply(Graphics2D g2d) {
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                antialias ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING,
+                antialias ? RenderingHints.VALUE_RENDER_QUALITY : RenderingHints.VALUE_RENDER_SPEED);
+    }
+}
@@ -0,0 +1,362 @@
+package org.sphaerica.display;
+
+import org.sphaerica.display.SphereDisplayPanel.PaintRecord;
+import org.sphaerica.math.ArcBall;
+import org.sphaerica.worksheet.SphericalObject;
+import org.sphaerica.worksheet.SphericalObjectVisitor;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Retained paint records of the objects of a display. The records of each
+ * object are cached until the object changes, that is until its revision
+ * changes, or until the view changes, that is the projection or the arcball.
+ * Records are also painted again for a tier of finer tolerance than they
+ * were painted with, while coarser tiers reuse them. Switching to a cheaper
+ * tier thus paints only the objects changing afterwards.
+ * Each frame only the changed objects are run through the painter.
+ * <p>
+ * The painters add the records of the hidden side of the sphere to the
+ * front of the queue and the visible ones to its end. The scene keeps the
+ * records of each object with the number of records added to the front, and
+ * assembles the queue in the same order as painting all objects to a single
+ * queue would.
+ * <p>
+ * Objects painted again in the last few frames, like the ones depending on a
+ * dragged point, are dynamic, the others are static. The records are also
+ * sorted to layers, so the display can keep the static records in offscreen
+ * images and paint only the dynamic ones in every frame. The hidden side of
+ * the static objects is kept below all other records. The visible side of a
+ * static object is kept only if no dynamic record precedes it, the others are
+ * painted with the dynamic records, so the visible side keeps its order.
+ * <p>
+ * The scene is used on the event dispatch thread only. Frames with many
+ * changed objects are painted by a pool of threads using a snapshot of the
+ * view, the records are then assembled in order on the calling thread.
+ */
+final class Scene {
+
+    /**
+     * Cached records of an object.
+     */
+    private static final class Entry {
+        final PaintRecord[] records;
+
+        /**
+         * Number of records added to the front, in the order of the queue.
+         */
+        final int backs;
+
+        final int revision;
+
+        /**
+         * Tolerance of the curves of the records.
+         */
+        final double tolerance;
+
+        /**
+         * Frame the records were painted in.
+         */
+        final long built;
+
+        /**
+         * Last frame the entry was used in.
+         */
+        long frame;
+
+        Entry(PaintRecord[] records, int backs, int revision, double tolerance, long built) {
+            this.records = records;
+            this.backs = backs;
+            this.revision = revision;
+            this.tolerance = tolerance;
+            this.built = built;
+        }
+    }
+
+    /**
+     * Queue counting the records added to the front.
+     */
+    @SuppressWarnings("serial")
+    private static final class RecordDeque extends ArrayDeque<PaintRecord> {
+        int backs = 0;
+
+        @Override
+        public void addFirst(PaintRecord record) {
+            super.addFirst(record);
+            backs++;
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            backs = 0;
+        }
+    }
+
+    /**
+     * Objects painted again within this many frames are dynamic.
+     */
+    private final static int DYNAMIC_FRAMES = 10;
+
+    /**
+     * Frames with fewer changed objects than this are painted in the calling
+     * thread.
+     */
+    private final static int PARALLEL_THRESHOLD = 64;
+
+    private final Map<SphericalObject, Entry> entries = new IdentityHashMap<SphericalObject, Entry>();
+
+    /**
+     * View the entries were painted in.
+     */
+    private ProjectionPainter painter = null;
+    private long view = -1;
+
+    /**
+     * Tolerance of the curves painted in the current frame.
+     */
+    private double tolerance = Tessellator.TOLERANCE;
+
+    private long frame = 0;
+
+    /**
+     * Pool painting the changed objects of large frames, created on first
+     * use.
+     */
+    private ExecutorService pool = null;
+
+    /**
+     * Records of the last frame by layer, in the order of filling.
+     */
+    private final Deque<PaintRecord> staticBacks = new ArrayDeque<PaintRecord>(),
+            staticFronts = new ArrayDeque<PaintRecord>(),
+            dynamicBacks = new ArrayDeque<PaintRecord>(),
+            dynamicFronts = new ArrayDeque<PaintRecord>();
+
+    /**
+     * Buffers of a frame reused by the next one.
+     */
+    private final RecordDeque queue = new RecordDeque();
+    private final List<SphericalObject> stale = new ArrayList<SphericalObject>();
+    private final List<Entry> current = new ArrayList<Entry>();
+
+    /**
+     * Static entries of the last frame and the number of changes of them.
+     */
+    private Entry[] statics = new Entry[0];
+    private int staticFrontCount = 0;
+    private long staticVersion = 0;
+
+    /**
+     * Paints the objects of a frame to the layers. Records of objects not
+     * changed since the last call are reused.
+     *
+     * @param objects    visible objects in the order of painting
+     * @param projection painter of the current projection
+     * @param tier       quality of painting
+     */
+    void update(List<SphericalObject> objects, ProjectionPainter projection, Quality tier) {
+        final ArcBall ball = projection.getArcBall();
+        if (projection != painter || ball.getVersion() != view) {
+            entries.clear();
+            staticVersion++;
+            painter = projection;
+            view = ball.getVersion();
+        }
+        tolerance = tier.tolerance;
+        frame++;
+
+        stale.clear();
+        for (SphericalObject obj : objects) {
+            final Entry entry = entries.get(obj);
+            if (entry == null || entry.revision != obj.getRevision() || entry.tolerance > tolerance)
+                stale.add(obj);
+        }
+        final Entry[] painted = new Entry[stale.size()];
+        if (stale.size() < PARALLEL_THRESHOLD)
+            paint(stale, 0, stale.size(), projection, queue, painted);
+        else
+            paintConcurrently(stale, projection, painted);
+        for (int i = 0; i < painted.length; i++)
+            entries.put(stale.get(i), painted[i]);
+
+        staticBacks.clear();
+        staticFronts.clear();
+        dynamicBacks.clear();
+        dynamicFronts.clear();
+
+        current.clear();
+        boolean above = false;
+        for (SphericalObject obj : objects) {
+            final Entry entry = entries.get(obj);
+            entry.frame = frame;
+
+            final boolean dynamic = frame - entry.built < DYNAMIC_FRAMES;
+            if (!dynamic)
+                current.add(entry);
+
+            // the backs of later objects come before the backs of earlier ones.
+            final Deque<PaintRecord> backs = dynamic ? dynamicBacks : staticBacks;
+            final Deque<PaintRecord> fronts = dynamic || above ? dynamicFronts : staticFronts;
+            for (int j = entry.backs; j-- > 0; )
+                backs.addFirst(entry.records[j]);
+            for (int j = entry.backs; j < entry.records.length; j++)
+                fronts.addLast(entry.records[j]);
+            above |= dynamic && entry.records.length > entry.backs;
+        }
+
+        // entries are replaced when painted again, so comparing them by
+        // identity finds every change of the static layers.
+        boolean same = current.size() == statics.length && staticFronts.size() == staticFrontCount;
+        for (int i = 0; same && i < statics.length; i++)
+            same = current.get(i) == statics[i];
+        if (!same) {
+            statics = current.toArray(new Entry[current.size()]);
+            staticFrontCount = staticFronts.size();
+            staticVersion++;
+        }
+
+        if (entries.size() > 2 * objects.size() + 64)
+            prune();
+    }
+
+    /**
+     * Paints a range of the objects to new entries. Only the result is
+     * written, so ranges may be painted concurrently.
+     *
+     * @param objects    objects to paint
+     * @param from       first index of the range
+     * @param to         index after the range
+     * @param projection painter to use
+     * @param deque      queue the painter fills, not shared with other threads
+     * @param result     the entries by the index of the objects
+     */
+    private void paint(List<SphericalObject> objects, int from, int to, ProjectionPainter projection,
+                       RecordDeque deque, Entry[] result) {
+        final SphericalObjectVisitor visitor = projection.createVisitorPainter(deque, tolerance);
+        for (int i = from; i < to; i++) {
+            final SphericalObject obj = objects.get(i);
+            // the revision is read first, a later change paints it again.
+            final int revision = obj.getRevision();
+            deque.clear();
+            obj.apply(visitor);
+            result[i] = new Entry(deque.toArray(new PaintRecord[deque.size()]), deque.backs, revision, tolerance, frame);
+        }
+    }
+
+    /**
+     * Paints the objects in chunks on the pool and waits for all of them. The
+     * workers paint with a snapshot of the view.
+     *
+     * @param objects    objects to paint
+     * @param projection painter of the current view
+     * @param result     the entries by the index of the objects
+     */
+    private void paintConcurrently(final List<SphericalObject> objects, ProjectionPainter projection,
+                                   final Entry[] result) {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    return new Worker(r);
+                }
+            });
+        }
+
+        final ProjectionPainter snapshot = projection.snapshot();
+        final int chunks = Runtime.getRuntime().availableProcessors() * 4;
+        final int step = (objects.size() + chunks - 1) / chunks;
+        final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(chunks);
+
+        for (int from = 0; from < objects.size(); from += step) {
+            final int start = from, end = Math.min(objects.size(), from + step);
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    paint(objects, start, end, snapshot, new RecordDeque(), result);
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Object> done : pool.invokeAll(tasks))
+                done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Thread of the pool. Runs only while the event dispatch thread waits for
+     * it.
+     */
+    private static final class Worker extends Thread {
+        Worker(Runnable r) {
+            super(r, "paint");
+            setDaemon(true);
+        }
+    }
+
+    /**
+     * @return records of the hidden side of the static objects of the last
+     * frame, in the order of filling.
+     */
+    Deque<PaintRecord> getStaticBacks() {
+        return staticBacks;
+    }
+
+    /**
+     * @return records of the visible side of the static objects of the last
+     * frame before any dynamic record, in the order of filling.
+     */
+    Deque<PaintRecord> getStaticFronts() {
+        return staticFronts;
+    }
+
+    /**
+     * @return records of the hidden side of the dynamic objects of the last
+     * frame, in the order of filling.
+     */
+    Deque<PaintRecord> getDynamicBacks() {
+        return dynamicBacks;
+    }
+
+    /**
+     * @return records of the visible side painted above the static ones: the
+     * records of the dynamic objects and the records after the first of
+     * them, in the order of filling.
+     */
+    Deque<PaintRecord> getDynamicFronts() {
+        return dynamicFronts;
+    }
+
+    /**
+     * @return true iff there is any static object in the last frame.
+     */
+    boolean hasStatic() {
+        return statics.length > 0;
+    }
+
+    /**
+     * Returns a number changing whenever the static records or the view
+     * change, so the layers painted from the static records are still
+     * current while it stays the same.
+     *
+     * @return version of the static layers
+     */
+    long getStaticVersion() {
+        return staticVersion;
+    }
+
+    /**
+     * Drops the entries not used in the last frame.
+     */
+    private void prune() {
+        for (Iterator<Entry> i = entries.values().iterator(); i.hasNext(); )
+            if (i.next().frame != frame)
+                i.remove();
+    }
+}
@@ -11,9 +11,9 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Deque;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -75,9 +75,49 @@ public final class SphereDisplayPanel extends JPanel implements
 
     private final Worksheet sheet;
 
+    /**
+     * Index of the objects of the worksheet for finding the hovered object.
+     */
+    private final HitIndex index;
+
+    /**
+     * Paint records of the objects kept between frames.
+     */
+    private final Scene scene = new Scene();
+
+    /**
+     * Coalesces the requests of frames and chooses their quality.
+     */
+    private final FrameScheduler frames = new FrameScheduler(this);
+
+    /**
+     * Offscreen layers of the static objects: the background with the hidden
+     * side, and the visible side. Objects changing in the last frames are
+     * painted between and above them.
+     */
+    private BufferedImage backLayer = null, frontLayer = null;
+
+    /**
+     * Static version of the scene the layers were painted at.
+     */
+    private long layersVersion = -1;
+    private Quality layersQuality = null;
+
+    /**
+     * Points and curves are hovered within these distances of the cursor.
+     */
+    private final static double POINT_RADIUS = 0.04d, CURVE_RADIUS = 0.02d;
+
+    /**
+     * Objects this many pixels off the screen are still painted, so wide
+     * strokes and points are not clipped.
+     */
+    private final static int VIEW_MARGIN = 32;
+
     public SphereDisplayPanel(Worksheet sheet, SphereCanvasCallback callback) {
         this.sheet = sheet;
         this.callback = callback;
+        this.index = new HitIndex(sheet);
 
         addMouseMotionListener(this);
         addMouseListener(this);
@@ -92,8 +132,7 @@ public final class SphereDisplayPanel extends JPanel implements
      * @return true iff object is visible and selectable
      */
     private boolean canProcess(SphericalObject obj) {
-        obj.update();
-        if (!obj.isReal())
+        if (!obj.isValid() || !obj.isReal())
             return false;
         if (!obj.getAppearance().containsKey(
                 ObjectAppearanceFactory.KEY_VISIBILITY))
@@ -150,7 +189,7 @@ public final class SphereDisplayPanel extends JPanel implements
             callback.objectSelected(hover);
         else if (cursor != null)
             callback.locationSelected(cursor);
-        repaint();
+        requestFrame();
     }
 
     @Override
@@ -162,10 +201,12 @@ public final class SphereDisplayPanel extends JPanel implements
 
         if ((hover != null) & ((hover instanceof FreePoint)) & (cursor != null)) {
             ((FreePoint) hover).setLocation(cursor);
+            sheet.fireChangeListeners();
         } else if ((hover != null) & (hover instanceof ParametricPoint)
                 & (cursor != null)) {
             ParametricPoint pp = (ParametricPoint) hover;
             pp.setParam(pp.getCurve().fInverse(cursor));
+            sheet.fireChangeListeners();
         } else {
             int cx = getWidth() / 2, cy = getHeight() / 2;
             final UnitVector a = map(from), b = map(cursorOnScreen);
@@ -179,7 +220,8 @@ public final class SphereDisplayPanel extends JPanel implements
                 ball.rotate(b.cross(a).normalize(), a.sphericalDistanceTo(b));
         }
 
-        repaint();
+        frames.interacted();
+        requestFrame();
     }
 
     @Override
@@ -197,15 +239,18 @@ public final class SphereDisplayPanel extends JPanel implements
         final SphericalObject previousHover = hover;
         hover = null;
         if (cursor != null) {
-            for (SphericalObject item : sheet.getConstruction()) {
+            final double cos = Math.cos(POINT_RADIUS);
+            for (SphericalObject item : index.near(cursor, POINT_RADIUS)) {
                 if (!canProcess(item))
                     continue;
                 else if (item instanceof AbstractPoint) {
-                    if (item.distance(cursor) < 0.04d) {
+                    final AbstractPoint point = (AbstractPoint) item;
+                    if (point.getX() * cursor.getX() + point.getY() * cursor.getY()
+                            + point.getZ() * cursor.getZ() > cos) {
                         hover = item;
                         break;
                     }
-                } else if (item.distance(cursor) < 0.02D)
+                } else if (item.distance(cursor) < CURVE_RADIUS)
                     hover = item;
             }
         }
@@ -214,7 +259,7 @@ public final class SphereDisplayPanel extends JPanel implements
                 previousHover.getAppearance().remove("hovered");
             if (hover != null)
                 hover.getAppearance().put("hovered", true);
-            repaint();
+            requestFrame();
         }
     }
 
@@ -235,23 +280,80 @@ public final class SphereDisplayPanel extends JPanel implements
             // vertical
             ball.rotate(ball.doInverseTransformation(new UnitVector(1, 0, 0)),
                     0.01 * e.getWheelRotation());
-        repaint();
+        frames.interacted();
+        requestFrame();
     }
 
     @Override
     public void paintComponent(Graphics g) {
 
-        final Graphics2D g2d = (Graphics2D) g;
+        frames.frameStarted();
+        final Quality quality = frames.getQuality();
 
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING,
-                RenderingHints.VALUE_RENDER_QUALITY);
+        final Graphics2D g2d = (Graphics2D) g;
+        quality.apply(g2d);
 
         final AffineTransform center = new AffineTransform(g2d.getTransform()), original = new AffineTransform(
                 g2d.getTransform());
         center.translate(getWidth() / 2, getHeight() / 2);
 
+        final double planeRadius = (Math.hypot(getWidth(), getHeight()) / 2 + VIEW_MARGIN)
+                / ball.getScale();
+
+        updateScene(planeRadius, quality);
+
+        if (scene.hasStatic()) {
+            updateLayers(original, quality);
+            g2d.setTransform(original);
+            g2d.drawImage(backLayer, 0, 0, getWidth(), getHeight(), null);
+            g2d.setTransform(center);
+            if (quality.backFaces)
+                fill(g2d, scene.getDynamicBacks());
+            g2d.setTransform(original);
+            g2d.drawImage(frontLayer, 0, 0, getWidth(), getHeight(), null);
+        } else {
+            paintMap(g2d, center);
+            g2d.setTransform(center);
+            if (quality.backFaces)
+                fill(g2d, scene.getDynamicBacks());
+        }
+        g2d.setTransform(center);
+        fill(g2d, scene.getDynamicFronts());
+
+        g2d.setTransform(original);
+        frames.frameDone();
+        callback.repainted();
+
+    }
+
+    /**
+     * Updates the scene from a consistent state of the worksheet. The geometry
+     * is read without locking, and read again if a write overlapped the read.
+     * After a few tries it is read under the monitor of the worksheet, so a
+     * torn frame is never painted.
+     *
+     * @param planeRadius radius of the visible part of the plane
+     * @param quality     quality tier of the frame
+     */
+    private void updateScene(double planeRadius, Quality quality) {
+        for (int i = 0; i < Worksheet.OPTIMISTIC_READS; i++) {
+            final long stamp = sheet.readStamp();
+            scene.update(order(planeRadius), projection, quality);
+            if (sheet.validate(stamp))
+                return;
+        }
+        synchronized (sheet) {
+            scene.update(order(planeRadius), projection, quality);
+        }
+    }
+
+    /**
+     * Paints the background and the image of the sphere.
+     *
+     * @param g2d    graphics to paint on, its transform is reset
+     * @param center transform of the center of the display
+     */
+    private void paintMap(Graphics2D g2d, AffineTransform center) {
         g2d.setTransform(new AffineTransform());
         if (projection.getMapShape() == null) {
             g2d.setColor(foreground);
@@ -264,63 +366,118 @@ public final class SphereDisplayPanel extends JPanel implements
             g2d.setColor(foreground);
             g2d.fill(centro.createTransformedShape(projection.getMapShape()));
         }
-        g2d.setTransform(center);
-
-        final Deque<PaintRecord> deck = new LinkedList<PaintRecord>();
-
-        final SphericalObjectVisitor paintVisitor = projection
-                .createVisitorPainter(deck);
-
-        for (SphericalObject obj : sheet.getConstruction())
-            obj.update();
-
-        for (SphericalObject obj : order())
-            obj.apply(paintVisitor);
+    }
 
-        for (PaintRecord record : deck) {
+    private static void fill(Graphics2D g2d, Collection<PaintRecord> records) {
+        for (PaintRecord record : records) {
             if (record.shape == null)
                 continue;
             g2d.setPaint(record.paint);
             g2d.fill(record.shape);
         }
+    }
 
-        g2d.setTransform(original);
-        callback.repainted();
+    /**
+     * Paints the static layers again if the static objects, the view, the
+     * quality tier or the size of the display changed since they were
+     * painted.
+     *
+     * @param original transform of the graphics of the display
+     * @param quality  quality tier of the frame
+     */
+    private void updateLayers(AffineTransform original, Quality quality) {
+        // the layers have the resolution of the device.
+        final double sx = original.getScaleX(), sy = original.getScaleY();
+        final int w = (int) Math.ceil(getWidth() * sx), h = (int) Math.ceil(getHeight() * sy);
+
+        if (backLayer == null || backLayer.getWidth() != w || backLayer.getHeight() != h) {
+            backLayer = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            frontLayer = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+        } else if (layersVersion == scene.getStaticVersion() && layersQuality == quality)
+            return;
+        layersVersion = scene.getStaticVersion();
+        layersQuality = quality;
+
+        final AffineTransform center = AffineTransform.getScaleInstance(sx, sy);
+        center.translate(getWidth() / 2, getHeight() / 2);
 
+        final Graphics2D back = backLayer.createGraphics();
+        quality.apply(back);
+        back.setClip(0, 0, w, h);
+        paintMap(back, center);
+        back.setTransform(center);
+        if (quality.backFaces)
+            fill(back, scene.getStaticBacks());
+        back.dispose();
+
+        final Graphics2D front = frontLayer.createGraphics();
+        quality.apply(front);
+        front.setComposite(AlphaComposite.Clear);
+        front.fillRect(0, 0, w, h);
+        front.setComposite(AlphaComposite.SrcOver);
+        front.setTransform(center);
+        fill(front, scene.getStaticFronts());
+        front.dispose();
     }
 
-    // returns ordered construction list
-    private Collection<SphericalObject> order() {
-        final List<SphericalObject> points = new LinkedList<SphericalObject>(), curves = new LinkedList<SphericalObject>(), polyga = new LinkedList<SphericalObject>();
+    /**
+     * Visible objects of the frame by kind and in the order of painting. The
+     * lists are reused between frames.
+     */
+    private final List<SphericalObject> points = new ArrayList<SphericalObject>(),
+            curves = new ArrayList<SphericalObject>(), polyga = new ArrayList<SphericalObject>(),
+            ordered = new ArrayList<SphericalObject>();
 
-        SphericalObjectVisitor visitor = new SphericalObjectVisitor() {
+    private final SphericalObjectVisitor sorter = new SphericalObjectVisitor() {
 
-            @Override
-            public void visit(Polygon poly) {
-                polyga.add(poly);
-            }
+        @Override
+        public void visit(Polygon poly) {
+            polyga.add(poly);
+        }
 
-            @Override
-            public void visit(AbstractPoint point) {
-                points.add(point);
-            }
+        @Override
+        public void visit(AbstractPoint point) {
+            points.add(point);
+        }
 
-            @Override
-            public void visit(AbstractCurve curve) {
-                curves.add(curve);
-            }
-        };
+        @Override
+        public void visit(AbstractCurve curve) {
+            curves.add(curve);
+        }
+    };
 
-        for (SphericalObject obj : sheet.getConstruction())
-            if (canProcess(obj))
-                obj.apply(visitor);
+    /**
+     * Returns the objects possibly visible on the screen in the order of
+     * painting: polygons, curves, then points.
+     *
+     * @param planeRadius radius of the screen on the plane of the projection
+     * @return ordered construction list, valid until the next call
+     */
+    private List<SphericalObject> order(double planeRadius) {
+        points.clear();
+        curves.clear();
+        polyga.clear();
+        ordered.clear();
+
+        final Worksheet.Snapshot objects = sheet.getConstruction().snapshot();
+        for (int i = 0; i < objects.size(); i++) {
+            final SphericalObject obj = objects.get(i);
+            if (canProcess(obj) && projection.isVisible(obj.getBounds(), planeRadius))
+                obj.apply(sorter);
+        }
 
-        final List<SphericalObject> retur = new LinkedList<SphericalObject>();
-        retur.addAll(polyga);
-        retur.addAll(curves);
-        retur.addAll(points);
+        ordered.addAll(polyga);
+        ordered.addAll(curves);
+        ordered.addAll(points);
+        return ordered;
+    }
 
-        return retur;
+    /**
+     * Requests a new frame of the display. Requests are coalesced, so at most
+     * one frame is painted in every refresh interval.
+     */
+    public void requestFrame() {
+        frames.request();
     }
 
     /**
@@ -343,5 +500,6 @@ public final class SphereDisplayPanel extends JPanel implements
             throw new IllegalArgumentException(
                     "null projection is not allowed.");
         projection = p;
+        requestFrame();
     }
 }
@@ -35,8 +35,8 @@ public final class StereographicPainter implements ProjectionPainter {
 
     @Override
     public SphericalObjectVisitor createVisitorPainter(
-            final Deque<PaintRecord> deque) {
-        return new DummyVisitorPainter(deque, ball, getProjection()) {
+            final Deque<PaintRecord> deque, double tolerance) {
+        return new DummyVisitorPainter(deque, ball, getProjection(), tolerance) {
 
             public void visit(Circle circle) {
 
@@ -130,7 +130,6 @@ public final class StereographicPainter implements ProjectionPainter {
 
             private final void handleCurve(AbstractCurve curve) {
 
-                int steps = 60;
                 double s = ball.getScale();
 
                 Path2D path = new Path2D.Double();
@@ -140,17 +139,13 @@ public final class StereographicPainter implements ProjectionPainter {
                         .doInverseTransformation(new Vector3D(0, 0, 1)));
                 path.moveTo(0, 0);
 
-                {
-                    double[] temp = super.onPlaneCoords(curve.f(start));
-                    path.moveTo(temp[0] * s, temp[1] * s);
-                }
+                // samples from start backwards to start again
+                final double[] temp = super.onPlaneLoop(curve, start, false);
+                final int last = temp.length - 3;
+                path.moveTo(temp[last] * s, temp[last + 1] * s);
 
-                for (int i = steps; i > 0; i--) {
-                    double x = start + 1.0 * i / steps;
-                    final UnitVector current = curve.f(x);
-                    double[] temp = super.onPlaneCoords(current);
-                    path.lineTo(temp[0] * s, temp[1] * s);
-                }
+                for (int i = 0; i < last; i += 3)
+                    path.lineTo(temp[i] * s, temp[i + 1] * s);
                 path.closePath();
 
                 deque.add(new PaintRecord(stroke(curve).createStrokedShape(path), color(curve)));
@@ -163,9 +158,25 @@ public final class StereographicPainter implements ProjectionPainter {
         return null;
     }
 
+    /**
+     * The disk of the screen is the image of a cap around the point
+     * projected to the center.
+     */
+    @Override
+    public boolean isVisible(Cap cap, double planeRadius) {
+        return cap.isSphere() || cap.intersects(new Cap(
+                ball.doInverseTransformation(new Vector3D(0, 0, -1)),
+                2 * Math.atan(planeRadius)));
+    }
+
     @Override
     public ArcBall getArcBall() {
         return ball;
     }
 
+    @Override
+    public ProjectionPainter snapshot() {
+        return new StereographicPainter(new ArcBall(ball));
+    }
+
 }
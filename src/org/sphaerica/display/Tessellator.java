@@ -0,0 +1,164 @@
+package org.sphaerica.display;
+
+import org.sphaerica.math.ArcBall;
+import org.sphaerica.math.Projection;
+import org.sphaerica.worksheet.AbstractCurve;
+
+import java.util.Arrays;
+
+/**
+ * Approximates the projection of curves with polygonal chains. The curve is
+ * first sampled at a few equal steps of its parameter, taken from the samples
+ * cached by the curve. Then each chord is halved while the projection of the
+ * middle of its arc is farther from the chord than the tolerance on the
+ * screen. Small curves get few vertices, while long arcs and
+ * the arcs running off to infinity near the pole of the projection are
+ * refined.
+ * <p>
+ * Instances are not thread safe, each visitor painter creates its own.
+ */
+final class Tessellator {
+
+    /**
+     * Default largest error of the chords on the screen, in pixels.
+     */
+    final static double TOLERANCE = 0.5;
+
+    /**
+     * Number of samples of the curve before refinement.
+     */
+    private final static int BASE = 16;
+
+    /**
+     * Largest number of halvings of a chord of the base samples.
+     */
+    private final static int MAX_DEPTH = 6;
+
+    /**
+     * Chords farther than this from the center of the screen, in pixels, are
+     * not refined. No screen is that large.
+     */
+    private final static double FAR = 4096;
+
+    private final ArcBall ball;
+    private final Projection proj;
+    private final double tolerance;
+
+    /**
+     * Projected coordinates of the samples of the current curve.
+     */
+    private double[] buf = new double[3 * (BASE + 2)];
+    private int size = 0;
+
+    /**
+     * Buffer for projecting a single point.
+     */
+    private final double[] point = new double[3];
+
+    /**
+     * Creates a tessellator for a view.
+     *
+     * @param ball      arcball of the view
+     * @param proj      projection of the view
+     * @param tolerance largest error of the chords on the screen in pixels
+     */
+    Tessellator(ArcBall ball, Projection proj, double tolerance) {
+        this.ball = ball;
+        this.proj = proj;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Samples a closed curve along a full turn from the given parameter back
+     * to it, rotates the samples by the arcball and projects them. Only the
+     * samples at the ends and the ones added by the refinement depend on the
+     * view, the others are cached by the curve.
+     *
+     * @param curve   closed curve to sample
+     * @param start   parameter of the first and the last sample
+     * @param forward the direction of the walk along the curve
+     * @return projected coordinates, three for each sample. The first and
+     * the last sample are at the start.
+     */
+    double[] loop(AbstractCurve curve, double start, boolean forward) {
+        final double[] samples = curve.getSamples(BASE);
+        final double[] base = new double[3 * (BASE + 2)];
+        final double[] params = new double[BASE + 2];
+
+        curve.f(start).copyTo(base, 0);
+        System.arraycopy(base, 0, base, 3 * (BASE + 1), 3);
+
+        // the walk is from s to s + 1 forwards, from s + 1 to s backwards.
+        final double s = (start % 1 + 1) % 1, t = s * BASE;
+        params[0] = forward ? s : s + 1;
+        params[BASE + 1] = forward ? s + 1 : s;
+
+        // the first cached sample after the start in the direction of walk
+        final int first = forward ? (int) Math.floor(t) + 1 : (int) Math.ceil(t) - 1 + BASE;
+        for (int i = 0; i < BASE; i++) {
+            final int k = forward ? first + i : first - i;
+            System.arraycopy(samples, 3 * (k % BASE), base, 3 * (i + 1), 3);
+            params[i + 1] = 1.0 * k / BASE;
+        }
+        ball.project(proj, base, 0, BASE + 2);
+
+        size = 0;
+        append(base, 0);
+        for (int i = 0; i <= BASE; i++) {
+            refine(curve, params[i], base[3 * i], base[3 * i + 1], params[i + 1],
+                    base[3 * i + 3], base[3 * i + 4], 0);
+            append(base, 3 * i + 3);
+        }
+        return Arrays.copyOf(buf, size);
+    }
+
+    /**
+     * Appends the samples strictly between the ends of a chord if the chord is
+     * too far from the curve.
+     */
+    private void refine(AbstractCurve curve, double t0, double x0, double y0,
+                        double t1, double x1, double y1, int depth) {
+        if (depth == MAX_DEPTH)
+            return;
+
+        final double tm = (t0 + t1) / 2;
+        curve.f(tm).copyTo(point, 0);
+        ball.project(proj, point, 0, 1);
+        final double xm = point[0], ym = point[1];
+
+        final double far = FAR / ball.getScale();
+        if (xm * xm + ym * ym > far * far && distance(0, 0, x0, y0, x1, y1) > far)
+            return;
+
+        final double error = distance(xm, ym, x0, y0, x1, y1) * ball.getScale();
+        // an undefined error, as at samples projected to infinity, also stops.
+        if (!(error > tolerance))
+            return;
+
+        final double zm = point[2];
+        refine(curve, t0, x0, y0, tm, xm, ym, depth + 1);
+        append(xm, ym, zm);
+        refine(curve, tm, xm, ym, t1, x1, y1, depth + 1);
+    }
+
+    /**
+     * Returns the distance of a point of the plane from a chord.
+     */
+    private static double distance(double x, double y, double x0, double y0, double x1, double y1) {
+        final double dx = x1 - x0, dy = y1 - y0, d2 = dx * dx + dy * dy;
+        final double t = d2 == 0 ? 0 : Math.max(0, Math.min(1, ((x - x0) * dx + (y - y0) * dy) / d2));
+        return Math.hypot(x0 + t * dx - x, y0 + t * dy - y);
+    }
+
+    private void append(double[] src, int off) {
+        append(src[off], src[off + 1], src[off + 2]);
+    }
+
+    private void append(double x, double y, double z) {
+        if (size + 3 > buf.length)
+            buf = Arrays.copyOf(buf, 2 * buf.length);
+        buf[size++] = x;
+        buf[size++] = y;
+        buf[size++] = z;
+    }
+}
@@ -2,13 +2,70 @@ package org.sphaerica.math;
 
 
 /**
- * ArcBall class for handling rotation of the sphere.
+ * ArcBall class for handling rotation of the sphere. The rotation is kept as a
+ * quaternion, its length is the scale of the sphere. The rotation matrix of
+ * the quaternion is cached, so transforming vectors takes a matrix
+ * multiplication only.
  */
 public class ArcBall {
     private final Quaternion quaternion = new Quaternion(0, 0, 0, 240);
 
+    /**
+     * Rotation matrix of the normalized quaternion in row major order.
+     */
+    private final double[] matrix = new double[9];
+
+    /**
+     * Scale of the sphere and its square.
+     */
+    private double scale, scale2;
+
+    /**
+     * Number of changes of the rotation or the scale.
+     */
+    private long version = 0;
+
+    public ArcBall() {
+        refresh();
+    }
+
+    /**
+     * Creates a copy of the current rotation and scale of an arcball. Later
+     * changes of either arcball do not affect the other.
+     *
+     * @param other arcball to copy
+     */
+    public ArcBall(ArcBall other) {
+        final Quaternion q = other.quaternion;
+        quaternion.setXYZW(q.getX(), q.getY(), q.getZ(), q.getW());
+        refresh();
+    }
+
+    /**
+     * Recomputes the cached matrix after the quaternion has changed.
+     */
+    private void refresh() {
+        version++;
+        scale2 = quaternion.dot();
+        scale = Math.sqrt(scale2);
+
+        final double x = quaternion.getX() / scale, y = quaternion.getY() / scale,
+                z = quaternion.getZ() / scale, w = quaternion.getW() / scale;
+
+        matrix[0] = 1 - 2 * (y * y + z * z);
+        matrix[1] = 2 * (x * y - z * w);
+        matrix[2] = 2 * (x * z + y * w);
+        matrix[3] = 2 * (x * y + z * w);
+        matrix[4] = 1 - 2 * (x * x + z * z);
+        matrix[5] = 2 * (y * z - x * w);
+        matrix[6] = 2 * (x * z - y * w);
+        matrix[7] = 2 * (y * z + x * w);
+        matrix[8] = 1 - 2 * (x * x + y * y);
+    }
+
     public void reset() {
         quaternion.setXYZW(0, 0, 0, 240);
+        refresh();
     }
 
     public void rotate(UnitVector axis, double angle) {
@@ -26,42 +83,123 @@ public class ArcBall {
                 * result, axis.getZ() * result, Math.cos(angle / 2.0));
 
         quaternion.multiplyBy(rot.normalize());
+        refresh();
     }
 
+    /**
+     * Rotates the vector in place and scales it to unit length.
+     *
+     * @param vector array of three coordinates
+     * @return the parameter
+     */
     public double[] doRotation(double[] vector) {
         if (vector.length < 3)
             throw new IllegalArgumentException("too small array passed");
 
-        Quaternion q1 = quaternion.clone(), q2 = quaternion.clone();
-        q1.multiplyBy(new Quaternion(vector[0], vector[1], vector[2], 0))
-                .multiplyBy(q2.conjugate());
-
-        double r = Math.sqrt(q1.getX() * q1.getX() + q1.getY() * q1.getY()
-                + q1.getZ() * q1.getZ());
-
-        vector[0] = q1.getX() / r;
-        vector[1] = q1.getY() / r;
-        vector[2] = q1.getZ() / r;
-
+        rotate(vector, 0, 1);
+        Vector3D.normalize(vector, 0);
         return vector;
     }
 
+    /**
+     * Rotates the vector and scales it by the square of the scale.
+     *
+     * @param vector vector to transform
+     * @return new transformed vector
+     */
     public Vector3D doTransformation(final UnitVector vector) {
         if (vector == null)
             throw new RuntimeException("can not rotate null vector");
-        Quaternion q1 = quaternion.clone(), q2 = quaternion.clone();
-        q1.multiplyBy(
-                new Quaternion(vector.getX(), vector.getY(), vector.getZ(), 0))
-                .multiplyBy(q2.conjugate());
+        final double[] m = matrix;
+        final double x = vector.getX(), y = vector.getY(), z = vector.getZ();
 
-        return new Vector3D(q1.getX(), q1.getY(), q1.getZ());
+        return new Vector3D(
+                scale2 * (m[0] * x + m[1] * y + m[2] * z),
+                scale2 * (m[3] * x + m[4] * y + m[5] * z),
+                scale2 * (m[6] * x + m[7] * y + m[8] * z));
+    }
+
+    /**
+     * Rotates vectors stored as consecutive coordinate triples in place.
+     *
+     * @param buf   coordinate buffer
+     * @param off   position of the first coordinate
+     * @param count number of vectors to rotate
+     */
+    public void rotate(double[] buf, int off, int count) {
+        final double[] m = matrix;
+        for (int i = off, end = off + 3 * count; i < end; i += 3) {
+            final double x = buf[i], y = buf[i + 1], z = buf[i + 2];
+            buf[i] = m[0] * x + m[1] * y + m[2] * z;
+            buf[i + 1] = m[3] * x + m[4] * y + m[5] * z;
+            buf[i + 2] = m[6] * x + m[7] * y + m[8] * z;
+        }
+    }
+
+    /**
+     * Returns the first coordinate of a rotated vector, without creating it.
+     *
+     * @return x coordinate of the rotated vector
+     */
+    public double rotatedX(double x, double y, double z) {
+        return matrix[0] * x + matrix[1] * y + matrix[2] * z;
+    }
+
+    /**
+     * Returns the second coordinate of a rotated vector, without creating it.
+     *
+     * @return y coordinate of the rotated vector
+     */
+    public double rotatedY(double x, double y, double z) {
+        return matrix[3] * x + matrix[4] * y + matrix[5] * z;
+    }
+
+    /**
+     * Rotates vectors stored as consecutive coordinate triples back, that is
+     * by the inverse rotation, in place.
+     *
+     * @param buf   coordinate buffer
+     * @param off   position of the first coordinate
+     * @param count number of vectors to rotate
+     */
+    public void inverseRotate(double[] buf, int off, int count) {
+        final double[] m = matrix;
+        for (int i = off, end = off + 3 * count; i < end; i += 3) {
+            final double x = buf[i], y = buf[i + 1], z = buf[i + 2];
+            buf[i] = m[0] * x + m[3] * y + m[6] * z;
+            buf[i + 1] = m[1] * x + m[4] * y + m[7] * z;
+            buf[i + 2] = m[2] * x + m[5] * y + m[8] * z;
+        }
+    }
+
+    /**
+     * Rotates the points of a buffer and maps them to the plane of the
+     * projection, in place. The points are expected to be unit vectors.
+     *
+     * @param proj  projection to the plane
+     * @param buf   coordinate buffer
+     * @param off   position of the first coordinate
+     * @param count number of points
+     */
+    public void project(Projection proj, double[] buf, int off, int count) {
+        rotate(buf, off, count);
+        proj.onPlane(buf, off, count);
+    }
+
+    /**
+     * Returns a number changing whenever the rotation or the scale changes.
+     *
+     * @return version of the arcball
+     */
+    public long getVersion() {
+        return version;
     }
 
     /**
      * Returns size of the sphere.
      */
     public double getScale() {
-        return Math.sqrt(quaternion.dot());
+        return scale;
     }
 
     /**
@@ -69,19 +207,19 @@ public class ArcBall {
      */
     public void setScale(double d) {
         quaternion.normalize().multiplyBy(new Quaternion(0, 0, 0, d));
+        refresh();
     }
 
     // transforms the vector back
     public UnitVector doInverseTransformation(final Vector3D vector) {
         if (vector == null)
             throw new RuntimeException("can not rotate null vector");
-        Quaternion q1 = quaternion.clone().invert(), q2 = quaternion.clone()
-                .invert();
-        q1.conjugate()
-                .multiplyBy(
-                        new Quaternion(vector.getX(), vector.getY(), vector
-                                .getZ(), 0).normalize()).multiplyBy(q2);
-
-        return new UnitVector(q1.getX(), q1.getY(), q1.getZ());
+        final double[] m = matrix;
+        final double x = vector.getX(), y = vector.getY(), z = vector.getZ();
+
+        return new UnitVector(
+                m[0] * x + m[3] * y + m[6] * z,
+                m[1] * x + m[4] * y + m[7] * z,
+                m[2] * x + m[5] * y + m[8] * z);
     }
 }
@@ -0,0 +1,132 @@
+package org.sphaerica.math;
+
+/**
+ * A spherical cap: the points of the unit sphere not farther from a center
+ * than a given angle. Caps are used as bounds of spherical objects. Instances
+ * are immutable.
+ */
+public final class Cap {
+
+    /**
+     * The cap covering the whole sphere.
+     */
+    public final static Cap SPHERE = new Cap(0, 0, 1, Math.PI);
+
+    private final double x, y, z, radius, cos;
+
+    /**
+     * Creates a cap of the given center and radius. Warning: the center is not
+     * normalized.
+     *
+     * @param x      first coordinate of center
+     * @param y      second coordinate of center
+     * @param z      third coordinate of center
+     * @param radius angular radius
+     */
+    public Cap(double x, double y, double z, double radius) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.radius = Math.min(radius, Math.PI);
+        this.cos = Math.cos(this.radius);
+    }
+
+    public Cap(Vector3D center, double radius) {
+        this(center.x, center.y, center.z, radius);
+    }
+
+    /**
+     * Creates the cap around the given points. The center is the normalized
+     * sum of the points. If the points are not in an open hemisphere the
+     * result is the whole sphere.
+     *
+     * @param points coordinate buffer, three values for each point
+     * @param count  number of points
+     * @return cap containing the points and their convex hull
+     */
+    public static Cap around(double[] points, int count) {
+        double sx = 0, sy = 0, sz = 0;
+        for (int i = 0; i < 3 * count; i += 3) {
+            sx += points[i];
+            sy += points[i + 1];
+            sz += points[i + 2];
+        }
+        final double r = Math.sqrt(sx * sx + sy * sy + sz * sz);
+        if (count == 0 || r == 0)
+            return SPHERE;
+        sx /= r;
+        sy /= r;
+        sz /= r;
+
+        double min = 1;
+        for (int i = 0; i < 3 * count; i += 3)
+            min = Math.min(min, sx * points[i] + sy * points[i + 1] + sz * points[i + 2]);
+
+        // the hull of the points is only inside caps smaller than a hemisphere.
+        if (min <= 0)
+            return SPHERE;
+        return new Cap(sx, sy, sz, Math.acos(min));
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getZ() {
+        return z;
+    }
+
+    /**
+     * @return center of the cap as a new vector.
+     */
+    public UnitVector getCenter() {
+        return new UnitVector(x, y, z);
+    }
+
+    /**
+     * @return angular radius of the cap.
+     */
+    public double getRadius() {
+        return radius;
+    }
+
+    /**
+     * @return true iff the cap covers the whole sphere.
+     */
+    public boolean isSphere() {
+        return radius >= Math.PI;
+    }
+
+    /**
+     * Decides if the point is inside the cap.
+     *
+     * @param v unit vector
+     * @return true iff the point is not farther from the center than the
+     * radius
+     */
+    public boolean contains(Vector3D v) {
+        return isSphere() || x * v.x + y * v.y + z * v.z >= cos;
+    }
+
+    /**
+     * Decides if the caps have a common point.
+     *
+     * @param other cap to test
+     * @return true iff the caps intersect
+     */
+    public boolean intersects(Cap other) {
+        final double sum = radius + other.radius;
+        if (sum >= Math.PI)
+            return true;
+        return x * other.x + y * other.y + z * other.z >= Math.cos(sum);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("cap(%f, %f, %f; %f)", x, y, z, radius);
+    }
+}
@@ -0,0 +1,135 @@
+package org.sphaerica.math;
+
+import java.util.Arrays;
+
+/**
+ * Packed storage of 3d coordinates. The coordinates of a slot are stored next
+ * to each other in a single primitive array, so a large number of points
+ * takes three doubles each instead of a vector object each. Released slots
+ * are reused by later allocations.
+ * <p>
+ * Slots are allocated and released by a single thread at a time. Coordinates
+ * of distinct slots may be written concurrently.
+ */
+public final class CoordinateStore {
+
+    /**
+     * Coordinates, three for each slot.
+     */
+    private volatile double[] coords;
+
+    /**
+     * Released slots available for reuse.
+     */
+    private int[] free = new int[16];
+    private int freeCount = 0;
+
+    /**
+     * Number of slots ever allocated.
+     */
+    private int capacity = 0;
+
+    public CoordinateStore() {
+        this(1024);
+    }
+
+    /**
+     * @param size number of slots to reserve memory for
+     */
+    public CoordinateStore(int size) {
+        coords = new double[3 * Math.max(size, 1)];
+    }
+
+    /**
+     * Allocates a new slot. The coordinates of the new slot are zero.
+     *
+     * @return index of new slot
+     */
+    public int allocate() {
+        if (freeCount > 0)
+            return free[--freeCount];
+
+        if (3 * capacity == coords.length)
+            coords = Arrays.copyOf(coords, coords.length * 2);
+        return capacity++;
+    }
+
+    /**
+     * Releases a slot for reuse.
+     *
+     * @param slot index of slot allocated before
+     */
+    public void release(int slot) {
+        set(slot, 0, 0, 0);
+        if (freeCount == free.length)
+            free = Arrays.copyOf(free, free.length * 2);
+        free[freeCount++] = slot;
+    }
+
+    /**
+     * @return number of slots in use.
+     */
+    public int size() {
+        return capacity - freeCount;
+    }
+
+    public void set(int slot, double x, double y, double z) {
+        final double[] c = coords;
+        c[3 * slot] = x;
+        c[3 * slot + 1] = y;
+        c[3 * slot + 2] = z;
+    }
+
+    public void set(int slot, Vector3D v) {
+        set(slot, v.x, v.y, v.z);
+    }
+
+    public double getX(int slot) {
+        return coords[3 * slot];
+    }
+
+    public double getY(int slot) {
+        return coords[3 * slot + 1];
+    }
+
+    public double getZ(int slot) {
+        return coords[3 * slot + 2];
+    }
+
+    /**
+     * Copies the coordinates of a slot to an array.
+     *
+     * @param slot   index of slot
+     * @param dst    destination array
+     * @param offset position of the first coordinate in the destination
+     */
+    public void copy(int slot, double[] dst, int offset) {
+        System.arraycopy(coords, 3 * slot, dst, offset, 3);
+    }
+
+    /**
+     * Creates a new unit vector of the coordinates of a slot.
+     *
+     * @param slot index of slot
+     * @return new vector object
+     */
+    public UnitVector toUnitVector(int slot) {
+        final double[] c = coords;
+        return new UnitVector(c[3 * slot], c[3 * slot + 1], c[3 * slot + 2]);
+    }
+
+    /**
+     * Calculates the spherical distance of the point of a slot and a vector.
+     *
+     * @param slot index of slot
+     * @param vec  unit vector
+     * @return spherical distance in radians
+     */
+    public double sphericalDistance(int slot, UnitVector vec) {
+        final double[] c = coords;
+        final double dot = c[3 * slot] * vec.x + c[3 * slot + 1] * vec.y + c[3 * slot + 2] * vec.z;
+        if (dot > 1 || dot < -1)
+            return 0;
+        return Math.acos(dot);
+    }
+}
@@ -20,6 +20,16 @@ public interface Projection {
         public double[] onPlane(double[] sphere) {
             return sphere;
         }
+
+        @Override
+        public void onSphere(double[] buf, int off, int count) {
+            for (int i = off, end = off + 3 * count; i < end; i += 3)
+                buf[i + 2] = Math.sqrt(1 - buf[i] * buf[i] - buf[i + 1] * buf[i + 1]);
+        }
+
+        @Override
+        public void onPlane(double[] buf, int off, int count) {
+        }
     };
 
     /**
@@ -44,6 +54,27 @@ public interface Projection {
             sphere[2] = 0;
             return sphere;
         }
+
+        @Override
+        public void onSphere(double[] buf, int off, int count) {
+            for (int i = off, end = off + 3 * count; i < end; i += 3) {
+                final double x = buf[i], y = buf[i + 1];
+                final double d = 1.0 + x * x + y * y;
+                buf[i] = 2.0 * x / d;
+                buf[i + 1] = 2.0 * y / d;
+                buf[i + 2] = 1.0 - 2.0 / d;
+            }
+        }
+
+        @Override
+        public void onPlane(double[] buf, int off, int count) {
+            for (int i = off, end = off + 3 * count; i < end; i += 3) {
+                final double d = 1.0 - buf[i + 2];
+                buf[i] /= d;
+                buf[i + 1] /= d;
+                buf[i + 2] = 0;
+            }
+        }
     };
 
     Projection GNOMONIC = new Projection() {
@@ -64,6 +95,24 @@ public interface Projection {
             return sphere;
         }
 
+        @Override
+        public void onSphere(double[] buf, int off, int count) {
+            for (int i = off, end = off + 3 * count; i < end; i += 3) {
+                final double x = buf[i], y = buf[i + 1], z = 1.0 / Math.sqrt(x * x + y * y + 1.0);
+                buf[i] *= z;
+                buf[i + 1] *= z;
+                buf[i + 2] = z;
+            }
+        }
+
+        @Override
+        public void onPlane(double[] buf, int off, int count) {
+            for (int i = off, end = off + 3 * count; i < end; i += 3) {
+                buf[i] /= buf[i + 2];
+                buf[i + 1] /= buf[i + 2];
+            }
+        }
+
     };
 
     /**
@@ -98,4 +147,25 @@ public interface Projection {
      * nearest side of the sphere with a non-negative value.
      */
     double[] onPlane(double[] plane);
+
+    /**
+     * Maps points of a buffer from plane coordinates to spherical coordinates
+     * in place. Same as calling {@link #onSphere(double[])} for each
+     * coordinate triple.
+     *
+     * @param buf   coordinate buffer, three values for each point
+     * @param off   position of the first coordinate of the first point
+     * @param count number of points to map
+     */
+    void onSphere(double[] buf, int off, int count);
+
+    /**
+     * Maps points of a buffer from the sphere to the plane in place. Same as
+     * calling {@link #onPlane(double[])} for each coordinate triple.
+     *
+     * @param buf   coordinate buffer, three values for each point
+     * @param off   position of the first coordinate of the first point
+     * @param count number of points to map
+     */
+    void onPlane(double[] buf, int off, int count);
 }
@@ -68,6 +68,21 @@ public class SphericalMath {
         return p1.x * p2.y * p3.z + p2.x * p3.y * p1.z + p3.x * p1.y * p2.z - p3.x * p2.y * p1.z - p2.x * p1.y * p3.z - p1.x * p3.y * p2.z >= 0;
     }
 
+    /**
+     * Same as {@link #isCCOrColinear(Vector3D, Vector3D, Vector3D)} for
+     * vectors stored in an array.
+     *
+     * @param v  array of coordinates
+     * @param p1 position of first vector
+     * @param p2 position of second vector
+     * @param p3 position of third vector
+     * @return true iff the determinant of the vectors is not negative
+     */
+    public static boolean isCCOrColinear(double[] v, int p1, int p2, int p3) {
+        return v[p1] * v[p2 + 1] * v[p3 + 2] + v[p2] * v[p3 + 1] * v[p1 + 2] + v[p3] * v[p1 + 1] * v[p2 + 2]
+                - v[p3] * v[p2 + 1] * v[p1 + 2] - v[p2] * v[p1 + 1] * v[p3 + 2] - v[p1] * v[p3 + 1] * v[p2 + 2] >= 0;
+    }
+
     /**
      * Checks if the given  vector lays inside the spherical triangle defined by the three points.
      *
@@ -97,6 +112,23 @@ public class SphericalMath {
         return d;
     }
 
+    /**
+     * Calculates the spherical excess, that is the area, of the triangle of
+     * three unit vectors stored in an array.
+     *
+     * @param v array of coordinates
+     * @param a position of first vector
+     * @param b position of second vector
+     * @param c position of third vector
+     * @return area of the triangle in steradians
+     */
+    public static double excess(double[] v, int a, int b, int c) {
+        final double det = v[a] * v[b + 1] * v[c + 2] + v[b] * v[c + 1] * v[a + 2] + v[c] * v[a + 1] * v[b + 2]
+                - v[c] * v[b + 1] * v[a + 2] - v[b] * v[a + 1] * v[c + 2] - v[a] * v[c + 1] * v[b + 2];
+        final double ab = Vector3D.dot(v, a, v, b), bc = Vector3D.dot(v, b, v, c), ca = Vector3D.dot(v, c, v, a);
+        return 2 * Math.atan2(Math.abs(det), 1 + ab + bc + ca);
+    }
+
     /**
      * Calculates the spherical are of the triangle defined by the three points.
      *
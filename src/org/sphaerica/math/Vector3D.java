@@ -55,6 +55,17 @@ public class Vector3D {
         z = c;
     }
 
+    /**
+     * Sets the coordinates of this vector. Unit vectors normalize the given
+     * coordinates.
+     *
+     * @return this
+     */
+    public Vector3D set(double a, double b, double c) {
+        setXYZ(a, b, c);
+        return this;
+    }
+
     /**
      * Calculates cross product with the given vector.
      *
@@ -66,6 +77,20 @@ public class Vector3D {
                 * other.z, x * other.y - y * other.x);
     }
 
+    /**
+     * Calculates cross product with the given vector into a destination
+     * vector. The destination may be any of the operands.
+     *
+     * @param other vector to calculate cross product with
+     * @param dst   vector to store the result in
+     * @return dst
+     */
+    public <T extends Vector3D> T cross(Vector3D other, T dst) {
+        dst.setXYZ(y * other.z - z * other.y, z * other.x - x * other.z, x
+                * other.y - y * other.x);
+        return dst;
+    }
+
     /**
      * Creates immutable copy of this vector. The immutable copy is going to
      * throw a runtime exception when a setter method is called on it. If the
@@ -102,6 +127,17 @@ public class Vector3D {
         return new UnitVector(this);
     }
 
+    /**
+     * Stores the normalized vector in the destination.
+     *
+     * @param dst unit vector to store the result in
+     * @return dst
+     */
+    public UnitVector normalize(UnitVector dst) {
+        dst.setXYZ(x, y, z);
+        return dst;
+    }
+
     public Vector3D normalizeThis() {
         double r = Math.sqrt(x * x + y * y + z * z);
         x /= r;
@@ -136,6 +172,39 @@ public class Vector3D {
         return this;
     }
 
+    /**
+     * Stores this vector rotated around the Z axis in the destination.
+     *
+     * @return dst
+     */
+    public <T extends Vector3D> T rotateZ(double q, T dst) {
+        dst.setXYZ(x * Math.cos(q) - y * Math.sin(q),
+                x * Math.sin(q) + y * Math.cos(q), z);
+        return dst;
+    }
+
+    /**
+     * Stores this vector rotated around the X axis in the destination.
+     *
+     * @return dst
+     */
+    public <T extends Vector3D> T rotateX(double q, T dst) {
+        dst.setXYZ(x, y * Math.cos(q) - z * Math.sin(q),
+                y * Math.sin(q) + z * Math.cos(q));
+        return dst;
+    }
+
+    /**
+     * Stores this vector rotated around the Y axis in the destination.
+     *
+     * @return dst
+     */
+    public <T extends Vector3D> T rotateY(double q, T dst) {
+        dst.setXYZ(z * Math.sin(q) + x * Math.cos(q), y,
+                z * Math.cos(q) - x * Math.sin(q));
+        return dst;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -263,4 +332,154 @@ public class Vector3D {
         this.z -= other.z;
         return this;
     }
+
+    /**
+     * Stores this vector scaled by the given ratio in the destination.
+     *
+     * @return dst
+     */
+    public Vector3D scaleBy(double s, Vector3D dst) {
+        dst.setXYZ(x * s, y * s, z * s);
+        return dst;
+    }
+
+    /**
+     * Stores the sum of this and the other vector in the destination.
+     *
+     * @return dst
+     */
+    public Vector3D add(Vector3D other, Vector3D dst) {
+        dst.setXYZ(x + other.x, y + other.y, z + other.z);
+        return dst;
+    }
+
+    /**
+     * Stores this vector minus the other vector in the destination.
+     *
+     * @return dst
+     */
+    public Vector3D subtract(Vector3D other, Vector3D dst) {
+        dst.setXYZ(x - other.x, y - other.y, z - other.z);
+        return dst;
+    }
+
+    /*
+     * The static methods below work on vectors stored as three consecutive
+     * coordinates of a double array. The destination may be any of the
+     * operands.
+     */
+
+    /**
+     * Copies the coordinates of the vector to an array.
+     */
+    public final void copyTo(double[] dst, int off) {
+        dst[off] = x;
+        dst[off + 1] = y;
+        dst[off + 2] = z;
+    }
+
+    public static void set(double[] v, int off, double a, double b, double c) {
+        v[off] = a;
+        v[off + 1] = b;
+        v[off + 2] = c;
+    }
+
+    public static double dot(double[] a, int ao, double[] b, int bo) {
+        return a[ao] * b[bo] + a[ao + 1] * b[bo + 1] + a[ao + 2] * b[bo + 2];
+    }
+
+    public static void cross(double[] a, int ao, double[] b, int bo, double[] dst, int off) {
+        final double x = a[ao + 1] * b[bo + 2] - a[ao + 2] * b[bo + 1],
+                y = a[ao + 2] * b[bo] - a[ao] * b[bo + 2],
+                z = a[ao] * b[bo + 1] - a[ao + 1] * b[bo];
+        set(dst, off, x, y, z);
+    }
+
+    /**
+     * Calculates the determinant of three vectors, that is the dot product
+     * of the cross product of the first two and the third.
+     */
+    public static double det(double[] a, int ao, double[] b, int bo, double[] c, int co) {
+        return (a[ao + 1] * b[bo + 2] - a[ao + 2] * b[bo + 1]) * c[co]
+                + (a[ao + 2] * b[bo] - a[ao] * b[bo + 2]) * c[co + 1]
+                + (a[ao] * b[bo + 1] - a[ao + 1] * b[bo]) * c[co + 2];
+    }
+
+    /**
+     * Scales the vector to unit length.
+     *
+     * @return original length of the vector
+     */
+    public static double normalize(double[] v, int off) {
+        final double r = Math.sqrt(v[off] * v[off] + v[off + 1] * v[off + 1] + v[off + 2] * v[off + 2]);
+        v[off] /= r;
+        v[off + 1] /= r;
+        v[off + 2] /= r;
+        return r;
+    }
+
+    public static void scale(double[] v, int off, double s) {
+        v[off] *= s;
+        v[off + 1] *= s;
+        v[off + 2] *= s;
+    }
+
+    public static void add(double[] a, int ao, double[] b, int bo, double[] dst, int off) {
+        set(dst, off, a[ao] + b[bo], a[ao + 1] + b[bo + 1], a[ao + 2] + b[bo + 2]);
+    }
+
+    public static void subtract(double[] a, int ao, double[] b, int bo, double[] dst, int off) {
+        set(dst, off, a[ao] - b[bo], a[ao + 1] - b[bo + 1], a[ao + 2] - b[bo + 2]);
+    }
+
+    public static void rotateX(double[] v, int off, double q) {
+        final double c = Math.cos(q), s = Math.sin(q), y = v[off + 1], z = v[off + 2];
+        v[off + 1] = y * c - z * s;
+        v[off + 2] = y * s + z * c;
+    }
+
+    public static void rotateY(double[] v, int off, double q) {
+        final double c = Math.cos(q), s = Math.sin(q), x = v[off], z = v[off + 2];
+        v[off] = z * s + x * c;
+        v[off + 2] = z * c - x * s;
+    }
+
+    public static void rotateZ(double[] v, int off, double q) {
+        final double c = Math.cos(q), s = Math.sin(q), x = v[off], y = v[off + 1];
+        v[off] = x * c - y * s;
+        v[off + 1] = x * s + y * c;
+    }
+
+    /**
+     * Rotates the vector around an unit length axis by the given angle, using
+     * the Rodrigues formula.
+     *
+     * @param v    vector to rotate
+     * @param off  position of the vector in the array
+     * @param axis unit length axis of rotation
+     * @param ao   position of the axis in its array
+     * @param q    angle of rotation
+     */
+    public static void rotate(double[] v, int off, double[] axis, int ao, double q) {
+        final double c = Math.cos(q), s = Math.sin(q);
+        final double kx = axis[ao], ky = axis[ao + 1], kz = axis[ao + 2];
+        final double x = v[off], y = v[off + 1], z = v[off + 2];
+        final double d = (kx * x + ky * y + kz * z) * (1 - c);
+        set(v, off,
+                x * c + (ky * z - kz * y) * s + kx * d,
+                y * c + (kz * x - kx * z) * s + ky * d,
+                z * c + (kx * y - ky * x) * s + kz * d);
+    }
+
+    /**
+     * Calculates the spherical distance of two unit vectors.
+     *
+     * @return angle of the two vectors in radians
+     */
+    public static double sphericalDistance(double[] a, int ao, double[] b, int bo) {
+        final double dot = dot(a, ao, b, bo);
+        if (dot > 1 || dot < -1)
+            return 0;
+        return Math.acos(dot);
+    }
 }
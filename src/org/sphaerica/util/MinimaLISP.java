@@ -209,6 +209,18 @@ public class MinimaLISP {
                                     throw new RuntimeException(e);
                                 }
 
+                                return null;
+                            } else if (head.equals("unwind-protect")) {
+                                // the body is evaluated in a nested
+                                // interpreter, so the cleanup runs even if
+                                // it throws.
+                                final Item result;
+                                try {
+                                    result = eval(li.tail().head(), envs.peek());
+                                } finally {
+                                    eval(li.tail().tail().head(), envs.peek());
+                                }
+                                push(ops, result, OpCodes.PUSH);
                                 return null;
                             } else if (head.equals("dump")) {
                                 System.out.println("DUMP");
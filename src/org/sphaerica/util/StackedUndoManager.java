@@ -88,6 +88,18 @@ public final class StackedUndoManager implements UndoableEdit {
         return false;
     }
 
+    /**
+     * Adds the undoable to the bottom of the stack, outside of the nested
+     * transactions. Calls action listeners with the ADD event command.
+     */
+    public boolean addEditOutside(UndoableEdit anEdit) {
+        if (stack.firstElement().addEdit(anEdit)) {
+            fireActionListeners(ADD);
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Return true iff the top element can be redone.
      */
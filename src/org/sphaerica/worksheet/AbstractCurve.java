@@ -8,7 +8,24 @@ public abstract class AbstractCurve extends AbstractSphericalObject {
         super(p);
     }
 
-    private double length = 0;
+    private volatile double length = 0;
+
+    /**
+     * Points of the curve at equal steps of the parameter, with the revision
+     * of the curve they were taken at.
+     */
+    private static final class Samples {
+        final int revision, count;
+        final double[] coords;
+
+        Samples(int revision, int count, double[] coords) {
+            this.revision = revision;
+            this.count = count;
+            this.coords = coords;
+        }
+    }
+
+    private volatile Samples samples = null;
 
     public abstract UnitVector f(double param);
 
@@ -25,6 +42,29 @@ public abstract class AbstractCurve extends AbstractSphericalObject {
 
     abstract double getLengthImpl();
 
+    /**
+     * Returns the points of the curve at the parameters i / count for i = 0,
+     * ..., count - 1, three coordinates for each point. The samples are kept
+     * until the curve changes, so while only the view of the sphere changes
+     * the curve is not evaluated again. The returned array is shared and must
+     * not be modified.
+     *
+     * @param count number of samples
+     * @return coordinates of the samples on the unit sphere
+     */
+    public final double[] getSamples(int count) {
+        final Samples cached = samples;
+        final int revision = getRevision();
+        if (cached != null && cached.revision == revision && cached.count == count)
+            return cached.coords;
+
+        final double[] coords = new double[3 * count];
+        for (int i = 0; i < count; i++)
+            f(1.0 * i / count).copyTo(coords, 3 * i);
+        samples = new Samples(revision, count, coords);
+        return coords;
+    }
+
     public void apply(SphericalObjectVisitor v) {
         v.visit(this);
     }
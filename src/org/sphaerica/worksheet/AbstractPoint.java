@@ -1,23 +1,130 @@
 package org.sphaerica.worksheet;
 
+import org.sphaerica.math.Cap;
+import org.sphaerica.math.CoordinateStore;
 import org.sphaerica.math.UnitVector;
 
 public abstract class AbstractPoint extends AbstractSphericalObject {
 
-    UnitVector loc;
+    /**
+     * Slot of a coordinate store. Immutable.
+     */
+    private static final class Slot {
+        final CoordinateStore store;
+        final int index;
+
+        Slot(CoordinateStore store, int index) {
+            this.store = store;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Location computed by the last update: the vector, which is never
+     * modified as updates replace it, or the slot of the store keeping it, or
+     * null. Readers read the field once, so they never see a half-made
+     * change. A reader racing with the removal of the point may read the
+     * coordinates of a later point reusing the slot, the write stamp of the
+     * worksheet tells that apart.
+     */
+    private volatile Object location = null;
+
+    /**
+     * Slot of this point while the worksheet uses a coordinate store. Used
+     * by the writer only.
+     */
+    private Slot slot = null;
 
     protected AbstractPoint(SphericalObject... p) {
         super(p);
     }
 
     public void updateImpl() {
-        loc = getLocationImpl();
+        final UnitVector v = getLocationImpl();
+        final Slot s = slot;
+        if (s != null && v != null) {
+            s.store.set(s.index, v);
+            location = s;
+        } else
+            location = v;
+    }
+
+    @Override
+    void attached(UpdateScheduler s) {
+        final CoordinateStore cs = s.getWorksheet().getCoordinateStore();
+        if (cs == null)
+            return;
+        final Slot created = slot = new Slot(cs, cs.allocate());
+        final Object l = location;
+        if (l != null) {
+            cs.set(created.index, (UnitVector) l);
+            location = created;
+        }
+    }
+
+    @Override
+    void detached() {
+        final Slot s = slot;
+        if (s == null)
+            return;
+        if (location == s)
+            location = s.store.toUnitVector(s.index);
+        slot = null;
+        s.store.release(s.index);
+    }
+
+    @Override
+    Cap boundsImpl() {
+        return new Cap(getX(), getY(), getZ(), 0);
     }
 
     abstract UnitVector getLocationImpl();
 
+    /**
+     * Returns the location of the point. If the worksheet keeps the
+     * coordinates in a store, a new vector is created on each call, use the
+     * coordinate getters to avoid that.
+     *
+     * @return location of the point or null if it does not exist
+     */
     public final UnitVector getLocation() {
-        return loc;
+        final Object l = location;
+        if (l instanceof Slot)
+            return ((Slot) l).store.toUnitVector(((Slot) l).index);
+        return (UnitVector) l;
+    }
+
+    public final double getX() {
+        final Object l = location;
+        return l instanceof Slot ? ((Slot) l).store.getX(((Slot) l).index) : ((UnitVector) l).getX();
+    }
+
+    public final double getY() {
+        final Object l = location;
+        return l instanceof Slot ? ((Slot) l).store.getY(((Slot) l).index) : ((UnitVector) l).getY();
+    }
+
+    public final double getZ() {
+        final Object l = location;
+        return l instanceof Slot ? ((Slot) l).store.getZ(((Slot) l).index) : ((UnitVector) l).getZ();
+    }
+
+    /**
+     * Copies the coordinates of the location to an array.
+     *
+     * @param dst    destination array
+     * @param offset position of the first coordinate in the destination
+     */
+    public final void copyLocation(double[] dst, int offset) {
+        final Object l = location;
+        if (l instanceof Slot) {
+            ((Slot) l).store.copy(((Slot) l).index, dst, offset);
+        } else {
+            final UnitVector v = (UnitVector) l;
+            dst[offset] = v.getX();
+            dst[offset + 1] = v.getY();
+            dst[offset + 2] = v.getZ();
+        }
     }
 
     public final void apply(SphericalObjectVisitor v) {
@@ -25,7 +132,10 @@ public abstract class AbstractPoint extends AbstractSphericalObject {
     }
 
     public double distance(UnitVector vector) {
-        return loc.sphericalDistanceTo(vector);
+        final Object l = location;
+        if (l instanceof Slot)
+            return ((Slot) l).store.sphericalDistance(((Slot) l).index, vector);
+        return ((UnitVector) l).sphericalDistanceTo(vector);
     }
 
     public abstract void applyPointVisitor(PointVisitor pv);
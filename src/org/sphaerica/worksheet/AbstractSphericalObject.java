@@ -1,17 +1,33 @@
 package org.sphaerica.worksheet;
 
+import org.sphaerica.math.Cap;
+
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class AbstractSphericalObject implements SphericalObject {
 
-    private boolean valid = false, real = false;
-    private final Map<String, Object> appearance = new HashMap<String, Object>();
-    private final List<SphericalObject> children = new ArrayList<SphericalObject>();
-    private final List<ChangeListener> listeners = new ArrayList<ChangeListener>();
+    private volatile boolean valid = false, real = false;
+    private volatile Cap bounds = Cap.SPHERE;
+    private final AtomicInteger revision = new AtomicInteger();
+    private final Map<String, Object> appearance = new Appearance();
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<ChangeListener>();
     private final SphericalObject[] parents;
 
+    /**
+     * Children in order of registration, created on the first registration.
+     */
+    private Children children = null;
+
+    /**
+     * Scheduler of the construction this object belongs to, or null.
+     */
+    private UpdateScheduler scheduler = null;
+
     protected AbstractSphericalObject(SphericalObject... p) {
         parents = p;
     }
@@ -25,6 +41,16 @@ public abstract class AbstractSphericalObject implements SphericalObject {
         return real;
     }
 
+    @Override
+    public final Cap getBounds() {
+        return bounds;
+    }
+
+    @Override
+    public final int getRevision() {
+        return revision.get();
+    }
+
     @Override
     public final void update() {
 
@@ -32,48 +58,78 @@ public abstract class AbstractSphericalObject implements SphericalObject {
             return;
 
         // a _real_ flag fugg a szulok allapotatol is.
-        real = true;
+        boolean r = true;
         for (SphericalObject parent : getParents())
-            if (!(real = parent.isReal()))
+            if (!(r = parent.isReal()))
                 break;
 
-        if (real) {
+        if (r) {
             updateImpl();
-            real = isRealImpl();
+            r = isRealImpl();
         }
-
+        if (r)
+            bounds = boundsImpl();
+        real = r;
 
         valid = true;
+        revision.incrementAndGet();
 
+        if (listeners.isEmpty())
+            return;
         final ChangeEvent e = new ChangeEvent(this);
         for (ChangeListener l : listeners)
             l.stateChanged(e);
     }
 
     /**
-     * Invalidates the tree hierarchy
+     * Reports a change of the appearance to the worksheet.
+     */
+    private void restyled() {
+        revision.incrementAndGet();
+        final UpdateScheduler s = scheduler;
+        if (s != null)
+            s.getWorksheet().recordRestyled(this);
+    }
+
+    /**
+     * Invalidates the tree hierarchy. Objects of a construction are
+     * invalidated as a write of the worksheet.
      */
     final void invalidate() {
+        final UpdateScheduler s = scheduler;
+        if (s != null)
+            s.invalidate(this);
+        else
+            invalidateTree();
+    }
+
+    /**
+     * Invalidates this object and its descendants.
+     */
+    final void invalidateTree() {
         if (!valid)
             return;
 
         valid = false;
 
+        if (scheduler != null)
+            scheduler.markDirty(this);
+
         final SphericalObjectVisitor visitor = new SphericalObjectVisitor() {
 
             @Override
             public void visit(Polygon poly) {
-                poly.invalidate();
+                poly.invalidateTree();
             }
 
             @Override
             public void visit(AbstractPoint point) {
-                point.invalidate();
+                point.invalidateTree();
             }
 
             @Override
             public void visit(AbstractCurve curve) {
-                curve.invalidate();
+                curve.invalidateTree();
             }
         };
 
@@ -81,11 +137,62 @@ public abstract class AbstractSphericalObject implements SphericalObject {
             obj.apply(visitor);
     }
 
+    /**
+     * Binds the object to the update scheduler of a construction. Objects not
+     * yet updated are scheduled right away.
+     *
+     * @param s scheduler of the construction
+     */
+    final void attach(UpdateScheduler s) {
+        scheduler = s;
+        attached(s);
+        if (!valid)
+            s.markDirty(this);
+    }
+
+    /**
+     * Releases the object from its update scheduler.
+     */
+    final void detach() {
+        if (scheduler != null) {
+            scheduler.forget(this);
+            detached();
+        }
+        scheduler = null;
+    }
+
+    /**
+     * Called when the object is added to a construction. The default
+     * implementation does nothing.
+     *
+     * @param s scheduler of the construction
+     */
+    void attached(UpdateScheduler s) {
+    }
+
+    /**
+     * Called when the object is removed from its construction. The default
+     * implementation does nothing.
+     */
+    void detached() {
+    }
+
     /**
      * Custom implementation code for updating geometrical object.
      */
     abstract void updateImpl();
 
+    /**
+     * Custom implementation code for computing the bounding cap of a real
+     * object, called after the update. The default implementation returns
+     * the whole sphere.
+     *
+     * @return cap containing the object
+     */
+    Cap boundsImpl() {
+        return Cap.SPHERE;
+    }
+
     /**
      * Custom implementation code to decide if object exists with the given object
      * if parent nodes exist.
@@ -96,16 +203,21 @@ public abstract class AbstractSphericalObject implements SphericalObject {
 
     @Override
     public final void registerChild(SphericalObject obj) {
+        if (children == null)
+            children = new Children();
         children.add(obj);
     }
 
     @Override
     public final void unregisterChild(SphericalObject obj) {
-        children.remove(obj);
+        if (children != null)
+            children.remove(obj);
     }
 
     @Override
     public final Iterable<SphericalObject> getChildren() {
+        if (children == null)
+            return Collections.emptyList();
         return children;
     }
 
@@ -136,4 +248,126 @@ public abstract class AbstractSphericalObject implements SphericalObject {
     public final void hide() {
         ObjectAppearanceFactory.hide(this);
     }
+
+    /**
+     * Appearance map reporting its modifications as restyling.
+     */
+    @SuppressWarnings("serial")
+    private final class Appearance extends ConcurrentHashMap<String, Object> {
+
+        @Override
+        public Object put(String key, Object value) {
+            final Object old = super.put(key, value);
+            if (!value.equals(old))
+                restyled();
+            return old;
+        }
+
+        @Override
+        public void putAll(Map<? extends String, ?> m) {
+            for (Map.Entry<? extends String, ?> entry : m.entrySet())
+                put(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public Object remove(Object key) {
+            final Object old = super.remove(key);
+            if (old != null)
+                restyled();
+            return old;
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            restyled();
+        }
+    }
+
+    /**
+     * Identity set of the children in order of registration. The children
+     * are kept in an array with an identity index of their slots, removed
+     * slots are left empty and the array is compacted to a new one when more
+     * than half of it is empty. Iterators work on the array they started
+     * with.
+     */
+    private static final class Children implements Iterable<SphericalObject> {
+        private SphericalObject[] items = new SphericalObject[4];
+        private final Map<SphericalObject, Integer> slots = new IdentityHashMap<SphericalObject, Integer>(4);
+
+        /**
+         * Number of used slots, including empty ones.
+         */
+        private int length = 0;
+
+        void add(SphericalObject obj) {
+            if (slots.containsKey(obj))
+                return;
+            if (length == items.length)
+                items = Arrays.copyOf(items, length * 2);
+            items[length] = obj;
+            slots.put(obj, length++);
+        }
+
+        void remove(SphericalObject obj) {
+            final Integer slot = slots.remove(obj);
+            if (slot == null)
+                return;
+            items[slot] = null;
+            if (length > 4 && slots.size() * 2 < length)
+                compact();
+        }
+
+        private void compact() {
+            final SphericalObject[] compacted = new SphericalObject[Math.max(4, slots.size() * 2)];
+            int j = 0;
+            for (int i = 0; i < length; i++) {
+                if (items[i] == null)
+                    continue;
+                compacted[j] = items[i];
+                slots.put(items[i], j++);
+            }
+            items = compacted;
+            length = j;
+        }
+
+        public Iterator<SphericalObject> iterator() {
+            final SphericalObject[] array = items;
+            final int n = Math.min(length, array.length);
+
+            return new Iterator<SphericalObject>() {
+                int i = 0;
+                SphericalObject next = advance();
+
+                /**
+                 * Finds the next child, read once so a concurrent removal
+                 * can not change it.
+                 */
+                private SphericalObject advance() {
+                    while (i < n) {
+                        final SphericalObject obj = array[i++];
+                        if (obj != null)
+                            return obj;
+                    }
+                    return null;
+                }
+
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                public SphericalObject next() {
+                    if (next == null)
+                        throw new NoSuchElementException();
+                    final SphericalObject obj = next;
+                    next = advance();
+                    return obj;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
 }
@@ -1,11 +1,26 @@
 package org.sphaerica.worksheet;
 
+import org.sphaerica.math.Cap;
 import org.sphaerica.math.UnitVector;
+import org.sphaerica.math.Vector3D;
 
 public final class Circle extends AbstractCurve {
 
-    private final UnitVector origo = new UnitVector(0, 0, 1),
-            previousOrigo = new UnitVector(0, 0, 1);
+    /**
+     * Origo of the last update, or null before the first one. The first
+     * update does not move the parametric points.
+     */
+    private volatile UnitVector origo = null;
+
+    /**
+     * Orthonormal frame of the circle and its radius constants, computed on
+     * update: the vectors u, v and w, where w is the origo and u, v span the
+     * plane of the circle, followed by cos(r), sin(r) and r. Never modified,
+     * updates replace it.
+     */
+    private volatile double[] frame = null;
+
+    final static int U = 0, V = 3, W = 6, COS = 9, SIN = 10, RADIUS = 11;
 
     private final AbstractPoint center, circum;
 
@@ -22,15 +37,54 @@ public final class Circle extends AbstractCurve {
     }
 
     public double getRadiusLength() {
-        return (circum == null) ? Math.PI / 2 : center.getLocation().sphericalDistanceTo(circum.getLocation());
+        return frame()[RADIUS];
+    }
+
+    /**
+     * @return frame of the last update, or of the current parents if the
+     * circle was not updated yet.
+     */
+    double[] frame() {
+        final double[] f = frame;
+        return f != null ? f : createFrame(center.getLocation());
+    }
+
+    /**
+     * Computes the frame of the circle. The vectors are the images of the
+     * base vectors when rotating the north pole to the origo, along the
+     * meridian of the origo.
+     *
+     * @param o origo of the circle
+     * @return new frame
+     */
+    private double[] createFrame(UnitVector o) {
+        final double[] f = new double[12];
+        final double ox = o.getX(), oy = o.getY(), oz = o.getZ();
+        final double rho = Math.sqrt(ox * ox + oy * oy);
+        final double cosAz = rho == 0 ? 1 : ox / rho, sinAz = rho == 0 ? 0 : oy / rho;
+
+        Vector3D.set(f, U, cosAz * oz, sinAz * oz, -rho);
+        Vector3D.set(f, V, -sinAz, cosAz, 0);
+        Vector3D.set(f, W, ox, oy, oz);
+
+        final double r = (circum == null) ? Math.PI / 2 : o.sphericalDistanceTo(circum.getLocation());
+        f[COS] = Math.cos(r);
+        f[SIN] = Math.sin(r);
+        f[RADIUS] = r;
+        return f;
     }
 
     public AbstractPoint getOrigo() {
         return center;
     }
 
+    /**
+     * @return origo of the last update, or the location of the center if the
+     * circle was not updated yet.
+     */
     public UnitVector getOrigoVector() {
-        return origo;
+        final UnitVector o = origo;
+        return o != null ? o : center.getLocation();
     }
 
     @Override
@@ -43,49 +97,70 @@ public final class Circle extends AbstractCurve {
         if (from == null || to.dot(from) >= 1) {
             return;
         }
-        final UnitVector tengely = to.cross(from).normalize();
+        // axis of the rotation, then location of each parametric point.
+        final double[] v = new double[6];
+        to.cross(from).copyTo(v, 0);
+        Vector3D.normalize(v, 0);
         final double angle = to.sphericalDistanceTo(from);
         for (SphericalObject p : getChildren()) {
             if (!(p instanceof ParametricPoint))
                 continue;
 
             ParametricPoint point = (ParametricPoint) p;
-            UnitVector loc = new UnitVector(point.getLocation()).rotateZ(-tengely.getAzimuth()).rotateY(-tengely.getInclination()).rotateZ(-angle).rotateY(tengely.getInclination()).rotateZ(tengely.getAzimuth()).normalize();
-            point.setParam(fInverse(loc));
+            point.copyLocation(v, 3);
+            Vector3D.rotate(v, 3, v, 0, -angle);
+            point.setParam(fInverse(new UnitVector(v[3], v[4], v[5])));
         }
     }
 
     @Override
     public void updateImpl() {
 
+        final UnitVector previous = this.origo;
+        this.origo = center.getLocation();
+        this.frame = createFrame(this.origo);
+
         super.updateImpl();
 
-        this.previousOrigo.copy(this.origo);
-        this.origo.copy(center.getLocation());
+        if (!this.origo.equals(previous))
+            origoChanged(previous, this.origo);
 
-        if (!this.origo.equals(this.previousOrigo))
-            origoChanged(this.previousOrigo, this.origo);
+    }
 
+    @Override
+    Cap boundsImpl() {
+        final double[] f = frame();
+        return new Cap(f[W], f[W + 1], f[W + 2], f[RADIUS]);
     }
 
     @Override
     public UnitVector f(double t) {
-        return new UnitVector(t * Math.PI * 2.0D, getRadiusLength()).rotateY(origo.getInclination()).rotateZ(origo.getAzimuth()).normalize();
+        final double[] f = frame();
+        final double a = t * Math.PI * 2.0D, c = f[SIN] * Math.cos(a), s = f[SIN] * Math.sin(a);
+        return new UnitVector(
+                f[COS] * f[W] + c * f[U] + s * f[V],
+                f[COS] * f[W + 1] + c * f[U + 1] + s * f[V + 1],
+                f[COS] * f[W + 2] + c * f[U + 2] + s * f[V + 2]);
     }
 
     @Override
     public double fInverse(UnitVector loc) {
-        return ((loc.rotateZ(-origo.getAzimuth()).rotateY(-origo.getInclination()).getAzimuth()) / 6.283185307179586D);
+        final double[] f = frame();
+        final double x = f[U] * loc.getX() + f[U + 1] * loc.getY() + f[U + 2] * loc.getZ(),
+                y = f[V] * loc.getX() + f[V + 1] * loc.getY() + f[V + 2] * loc.getZ();
+        return ((Math.atan2(y, x) + 12.566370614359172D) % 6.283185307179586D) / 6.283185307179586D;
     }
 
     @Override
     public double getLengthImpl() {
-        return Math.sin(getRadiusLength()) * 3.141592653589793D * 2.0D;
+        return frame()[SIN] * 3.141592653589793D * 2.0D;
     }
 
     @Override
     public final double distance(UnitVector loc) {
-        return Math.abs(getRadiusLength() - getOrigo().getLocation().sphericalDistanceTo(loc));
+        final double[] f = frame();
+        final double dot = f[W] * loc.getX() + f[W + 1] * loc.getY() + f[W + 2] * loc.getZ();
+        return Math.abs(f[RADIUS] - (dot > 1 || dot < -1 ? 0 : Math.acos(dot)));
     }
 
     @Override
@@ -97,4 +172,19 @@ public final class Circle extends AbstractCurve {
         return circum;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Circle))
+            return false;
+        if (obj == this)
+            return true;
+        final Circle circle = (Circle) obj;
+        return circle.center == center && circle.circum == circum;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * System.identityHashCode(center) + System.identityHashCode(circum)) + 3;
+    }
+
 }
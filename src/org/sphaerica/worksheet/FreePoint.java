@@ -4,7 +4,7 @@ import org.sphaerica.math.UnitVector;
 
 public final class FreePoint extends AbstractPoint {
 
-    private final UnitVector loc = new UnitVector(0, 0, 1);
+    private volatile UnitVector position = new UnitVector(0, 0, 1);
 
     FreePoint(UnitVector vec) {
         super();
@@ -14,11 +14,11 @@ public final class FreePoint extends AbstractPoint {
 
     @Override
     UnitVector getLocationImpl() {
-        return loc;
+        return position;
     }
 
     public final void setLocation(UnitVector location) {
-        loc.copy(location);
+        position = new UnitVector(location);
         invalidate();
     }
 
@@ -1,17 +1,24 @@
 package org.sphaerica.worksheet;
 
-import org.sphaerica.math.SphericalMath;
 import org.sphaerica.math.UnitVector;
-import org.sphaerica.math.Vector3D;
 
 /**
  * The intersection point has a location that can be found on both of its parent
  * circles. The current implementation supports all circle like objects.
+ * <p>
+ * The intersections of two curves taken in both orders are the two
+ * intersection points of the curves. They share an {@link IntersectionPair}
+ * solving both points at once.
  */
 public final class Intersection extends AbstractPoint {
 
     final AbstractCurve firstObject, secondObject;
 
+    /**
+     * Pair shared with the reversed intersection, set on attaching.
+     */
+    private volatile IntersectionPair pair = null;
+
     public Intersection(AbstractCurve first, AbstractCurve second) {
         super(first, second);
         firstObject = first;
@@ -20,103 +27,71 @@ public final class Intersection extends AbstractPoint {
             throw new IllegalArgumentException("curves must be different!");
     }
 
-    public UnitVector getLocationImpl() {
-        final double r1 = circleRadius(firstObject), r2 = circleRadius(secondObject);
-        final UnitVector o1 = circleOrigo(firstObject), o2 = circleOrigo(secondObject);
-
-        final UnitVector loc = intersectCircleCircle(o1, r1, o2, r2, true);
-
-        if (loc == null)
-            return null;
-        else if (SphericalMath.isCCOrColinear(o1, o2, loc))
-            return loc;
-        else
-            return intersectCircleCircle(o1, r1, o2, r2, false);
-    }
-
-    /**
-     * If the curve is a circle or line segment, returns its radius. Returns NaN
-     * otherwise.
-     *
-     * @param curve any curve not null
-     * @return radius of circle or NaN
-     */
-    private static double circleRadius(AbstractCurve curve) {
-        if (curve instanceof Circle)
-            return ((Circle) curve).getRadiusLength();
-        else if (curve instanceof LineSegment)
-            return Math.PI / 2;
-        else
-            return Double.NaN;
+    @Override
+    void attached(UpdateScheduler s) {
+        super.attached(s);
+        final IntersectionPair shared = reversedPair();
+        if (shared != null)
+            pair = shared;
+        else if (pair == null)
+            pair = new IntersectionPair(firstObject, secondObject);
     }
 
     /**
-     * If the curve is a circle or line segment, returns its central point.
-     * Returns null otherwise.
+     * Looks for the reversed intersection among the children of the first
+     * curve, which are the objects of the construction made of it.
      *
-     * @param curve any curve not null
-     * @return central point of circle or null
+     * @return pair of the reversed intersection or null if there is none
      */
-    private static UnitVector circleOrigo(AbstractCurve curve) {
-        if (curve instanceof Circle)
-            return ((Circle) curve).getOrigoVector();
-        else if (curve instanceof LineSegment)
-            return ((LineSegment) curve).a.getLocation()
-                    .cross(((LineSegment) curve).b.getLocation()).normalize();
-        else
-            return null;
+    private IntersectionPair reversedPair() {
+        for (SphericalObject child : firstObject.getChildren()) {
+            if (child == this || !(child instanceof Intersection))
+                continue;
+            final Intersection other = (Intersection) child;
+            if (other.firstObject == secondObject && other.secondObject == firstObject && other.pair != null)
+                return other.pair;
+        }
+        return null;
     }
 
-    /**
-     * Returns an intersection point of the two circles.
-     *
-     * @param ac   center of first circle
-     * @param ar   radius of first circle
-     * @param bc   center of second circle
-     * @param br   radius of second circle
-     * @param step first or second intersection point should be returned
-     * @return intersection point locatioin of two circles
-     */
-    private static UnitVector intersectCircleCircle(UnitVector ac,
-                                                    double ar, UnitVector bc, double br, boolean step) {
-        final Vector3D cross = ac.cross(bc);
-        final double dotA = Math.cos(ar), dotB = Math.cos(br);
-
-        if (dotA == 0 && dotB == 0)
-            return new UnitVector(cross);
-
-        double a = cross.dot();
-        double b = 2f * (dotB * ac.cross(cross).getZ() - dotA
-                * bc.cross(cross).getZ());
-        double c = dotB * dotB
-                * (ac.getX() * ac.getX() + ac.getY() * ac.getY()) + dotA * dotA
-                * (bc.getX() * bc.getX() + bc.getY() * bc.getY()) - 2f * dotA
-                * dotB * (ac.getX() * bc.getX() + ac.getY() * bc.getY())
-                - cross.getZ() * cross.getZ();
-        final double z = (-b + (step ? +1.0 : -1.0) * Math.sqrt(b * b - 4f * a * c))
-                / (2f * a);
-        final double x = (bc.getY() * dotA - ac.getY() * dotB + cross.getX() * z)
-                / cross.getZ();
-        final double y = (ac.getX() * dotB - bc.getX() * dotA + cross.getY() * z)
-                / cross.getZ();
-
-        if (Double.isNaN(z))
-            return null;
-        else
-            return new UnitVector(x, y, z);
+    public UnitVector getLocationImpl() {
+        final IntersectionPair p = pair;
+        return p == null ? null : p.root(firstObject);
     }
 
     @Override
     public boolean isRealImpl() {
         final UnitVector l = getLocation();
-        final double precision = 0.02;
+        return (l != null && isOn(firstObject, l) && isOn(secondObject, l));
+    }
 
-        return (l != null && firstObject.distance(loc) <= precision && secondObject
-                .distance(loc) <= precision);
+    /**
+     * Decides if the intersection point is on the curve. The point is on the
+     * full circle of the curve by construction, so only the extent of line
+     * segments is checked.
+     */
+    private static boolean isOn(AbstractCurve curve, UnitVector l) {
+        final double precision = 0.02;
+        return curve instanceof Circle || curve.distance(l) <= precision;
     }
 
     @Override
     public void applyPointVisitor(PointVisitor pv) {
         pv.visit(this);
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Intersection))
+            return false;
+        if (obj == this)
+            return true;
+        final Intersection inter = (Intersection) obj;
+        return inter.firstObject == firstObject && inter.secondObject == secondObject;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * System.identityHashCode(firstObject) + System.identityHashCode(secondObject)) + 4;
+    }
+}
@@ -0,0 +1,120 @@
+package org.sphaerica.worksheet;
+
+import org.sphaerica.math.UnitVector;
+import org.sphaerica.math.Vector3D;
+
+/**
+ * Intersection points of two curves. The intersections of the curves taken in
+ * both orders share one pair, so the two points are solved together once per
+ * update of the curves. The pair supports circles and line segments.
+ */
+final class IntersectionPair {
+
+    /**
+     * Curves in the order of the intersection creating the pair.
+     */
+    private final AbstractCurve first, second;
+
+    /**
+     * Solution of the last frames of the curves.
+     */
+    private volatile Solution solution = null;
+
+    IntersectionPair(AbstractCurve first, AbstractCurve second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    /**
+     * Returns one of the intersection points. The intersection of the curves
+     * in the order of the pair gets the point making a counter clockwise or
+     * colinear triple with the two centers, the reversed one gets the other.
+     *
+     * @param a first curve of the intersection
+     * @return intersection point or null if the curves do not intersect
+     */
+    UnitVector root(AbstractCurve a) {
+        final double[] fa = frame(first), fb = frame(second);
+        if (fa == null || fb == null)
+            return null;
+
+        Solution s = solution;
+        if (s == null || s.first != fa || s.second != fb)
+            solution = s = new Solution(fa, centerOf(first), cosOf(first, fa),
+                    fb, centerOf(second), cosOf(second, fb));
+
+        if (s.roots == null)
+            return null;
+        final int off = a == first ? 0 : 3;
+        return new UnitVector(s.roots[off], s.roots[off + 1], s.roots[off + 2]);
+    }
+
+    /**
+     * @return frame of the last update of the curve, or null if the curve is
+     * not a circle or a line segment.
+     */
+    private static double[] frame(AbstractCurve curve) {
+        if (curve instanceof Circle)
+            return ((Circle) curve).frame();
+        else if (curve instanceof LineSegment)
+            return ((LineSegment) curve).frame();
+        else
+            return null;
+    }
+
+    private static int centerOf(AbstractCurve curve) {
+        return curve instanceof Circle ? Circle.W : LineSegment.N;
+    }
+
+    private static double cosOf(AbstractCurve curve, double[] frame) {
+        return curve instanceof Circle ? frame[Circle.COS] : Math.cos(Math.PI / 2);
+    }
+
+    /**
+     * Both intersection points of two curves, solved from the frames of the
+     * curves. Never modified.
+     */
+    private static final class Solution {
+        final double[] first, second;
+
+        /**
+         * The two intersection points or null if the curves do not intersect.
+         */
+        final double[] roots;
+
+        /**
+         * The intersection points are a*o1 + b*o2 +- c*(o1 x o2), where a and
+         * b are given by the dot products of the point with the centers, that
+         * is by the cosines of the radii.
+         */
+        Solution(double[] f1, int o1, double dotA, double[] f2, int o2, double dotB) {
+            first = f1;
+            second = f2;
+
+            final double acx = f1[o1], acy = f1[o1 + 1], acz = f1[o1 + 2];
+            final double bcx = f2[o2], bcy = f2[o2 + 1], bcz = f2[o2 + 2];
+            final double crx = acy * bcz - acz * bcy, cry = acz * bcx - acx * bcz, crz = acx * bcy - acy * bcx;
+
+            final double k = acx * bcx + acy * bcy + acz * bcz, n = crx * crx + cry * cry + crz * crz;
+            if (n == 0) {
+                roots = null;
+                return;
+            }
+
+            final double a = (dotA - dotB * k) / n, b = (dotB - dotA * k) / n;
+            double h = 1 - (a * dotA + b * dotB);
+            if (h < 0 && h > -1e-12)
+                h = 0; // tangent circles
+            if (!(h >= 0)) {
+                roots = null;
+                return;
+            }
+
+            final double c = Math.sqrt(h / n);
+            final double px = a * acx + b * bcx, py = a * acy + b * bcy, pz = a * acz + b * bcz;
+            roots = new double[6];
+            Vector3D.set(roots, 0, px + c * crx, py + c * cry, pz + c * crz);
+            Vector3D.set(roots, 3, px - c * crx, py - c * cry, pz - c * crz);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package org.sphaerica.worksheet;
 
+import org.sphaerica.math.Cap;
 import org.sphaerica.math.UnitVector;
+import org.sphaerica.math.Vector3D;
 
 public final class LineSegment extends AbstractCurve {
 
@@ -14,17 +16,107 @@ public final class LineSegment extends AbstractCurve {
 
     }
 
+    /**
+     * Frame of the segment computed on update: the first endpoint a, the unit
+     * tangent e at a pointing towards the second endpoint and the normal n of
+     * the great circle, oriented as a x b, followed by the length of the
+     * segment. Never modified, updates replace it.
+     */
+    private volatile double[] frame = null;
+
+    final static int A = 0, E = 3, N = 6, ALPHA = 9;
+
+    /**
+     * @return frame of the last update, or of the current endpoints if the
+     * segment was not updated yet.
+     */
+    double[] frame() {
+        final double[] f = frame;
+        return f != null ? f : createFrame();
+    }
+
+    private double[] createFrame() {
+        final double[] f = new double[10];
+        a.copyLocation(f, A);
+        b.copyLocation(f, N); // temporarily
+
+        final double alpha = Vector3D.sphericalDistance(f, A, f, N), cos = Math.cos(alpha);
+        Vector3D.set(f, E, f[N] - cos * f[A], f[N + 1] - cos * f[A + 1], f[N + 2] - cos * f[A + 2]);
+        Vector3D.normalize(f, E);
+        Vector3D.cross(f, A, f, N, f, N);
+        Vector3D.normalize(f, N);
+        f[ALPHA] = alpha;
+        return f;
+    }
+
+    @Override
+    public void updateImpl() {
+        frame = createFrame();
+        super.updateImpl();
+    }
+
+    /**
+     * Returns the unit normal vector of the great circle of the segment,
+     * oriented as the cross product of the first and second endpoint.
+     *
+     * @return new vector object
+     */
+    public UnitVector getNormal() {
+        final double[] f = frame();
+        return new UnitVector(f[N], f[N + 1], f[N + 2]);
+    }
+
+    /**
+     * Copies the unit normal of the great circle of the segment to an array.
+     *
+     * @param dst    destination array
+     * @param offset position of the first coordinate in the destination
+     */
+    public void copyNormal(double[] dst, int offset) {
+        System.arraycopy(frame(), N, dst, offset, 3);
+    }
+
     @Override
     public UnitVector f(double t) {
-        final UnitVector l1 = a.getLocation(), l2 = b.getLocation();
-        final double alpha = l1.sphericalDistanceTo(l2), s = (Math.sin(t * alpha) / Math.sin(3.141592653589793D - t * alpha - 1.570796326794897D + alpha / 2.0F) / (2.0D * Math.sin(alpha / 2.0F)));
-        return new UnitVector(l1.getX() * (1.0F - s) + l2.getX() * s, l1.getY() * (1.0F - s) + l2.getY() * s, l1.getZ() * (1.0F - s) + l2.getZ() * s);
+        final double[] f = frame();
+        if (f[ALPHA] == 0)
+            return new UnitVector(f[A], f[A + 1], f[A + 2]);
+        final double c = Math.cos(t * f[ALPHA]), s = Math.sin(t * f[ALPHA]);
+        return new UnitVector(c * f[A] + s * f[E], c * f[A + 1] + s * f[E + 1], c * f[A + 2] + s * f[E + 2]);
+    }
+
+    /**
+     * @return cap around the midpoint of the segment with half of its length
+     * as radius.
+     */
+    @Override
+    Cap boundsImpl() {
+        final double[] f = frame();
+        final double c = Math.cos(f[ALPHA] / 2), s = Math.sin(f[ALPHA] / 2);
+        return new Cap(c * f[A] + s * f[E], c * f[A + 1] + s * f[E + 1], c * f[A + 2] + s * f[E + 2], f[ALPHA] / 2);
+    }
+
+    /**
+     * Angle of the projection of the vector to the great circle of the
+     * segment, measured from the first endpoint towards the second one.
+     */
+    private static double angle(double[] f, UnitVector v) {
+        final double x = v.getX(), y = v.getY(), z = v.getZ();
+        return Math.atan2(f[E] * x + f[E + 1] * y + f[E + 2] * z, f[A] * x + f[A + 1] * y + f[A + 2] * z);
+    }
+
+    /**
+     * Spherical distance of the projection from the second endpoint.
+     */
+    private static double fromEnd(double[] f, double angle) {
+        final double d = Math.abs(angle - f[ALPHA]);
+        return d > Math.PI ? 2 * Math.PI - d : d;
     }
 
     @Override
     public double fInverse(UnitVector v) {
-        final UnitVector origo = a.getLocation().cross(b.getLocation()).normalize(), projected = origo.cross(v).cross(origo).normalize();
-        final double length = getLength(), f1 = this.a.getLocation().sphericalDistanceTo(projected), f2 = this.b.getLocation().sphericalDistanceTo(projected);
+        final double[] f = frame();
+        final double angle = angle(f, v), length = f[ALPHA], f1 = Math.abs(angle), f2 = fromEnd(f, angle);
         if (f1 > length) {
             return 1.0F;
         }
@@ -36,7 +128,7 @@ public final class LineSegment extends AbstractCurve {
 
     @Override
     double getLengthImpl() {
-        return a.getLocation().sphericalDistanceTo(b.getLocation());
+        return frame()[ALPHA];
     }
 
     @Override
@@ -46,24 +138,22 @@ public final class LineSegment extends AbstractCurve {
 
     @Override
     boolean isRealImpl() {
-        final double len = a.getLocation().sphericalDistanceTo(b.getLocation());
+        final double len = frame()[ALPHA];
         return ((len > 0) && (len < 3.14159265));
     }
 
     @Override
     public double distance(UnitVector loc) {
-        final UnitVector aa = a.getLocation(), // point
-                bb = b.getLocation(); // point
-        if (aa.equals(bb))
-            return aa.sphericalDistanceTo(loc);
-        final UnitVector o = bb.cross(aa).normalize(), // origo
-                vetulet = o.cross(loc).cross(o).normalize(); // proj of loc to seg
-        final double hossz = aa.sphericalDistanceTo(bb);
+        final double[] f = frame();
+        if (f[ALPHA] == 0)
+            return loc.sphericalDistanceTo(a.getLocation());
+
+        final double angle = angle(f, loc), f1 = Math.abs(angle), f2 = fromEnd(f, angle);
+        if (f1 + f2 > f[ALPHA] + 0.0000001d)
+            return Math.min(a.distance(loc), b.distance(loc));
 
-        if (vetulet.sphericalDistanceTo(aa) + vetulet.sphericalDistanceTo(bb) > hossz + 0.0000001d)
-            return Math.min(aa.sphericalDistanceTo(loc), bb.sphericalDistanceTo(loc));
-        else
-            return loc.sphericalDistanceTo(vetulet);
+        final double dot = Math.abs(f[N] * loc.getX() + f[N + 1] * loc.getY() + f[N + 2] * loc.getZ());
+        return Math.asin(Math.min(dot, 1));
     }
 
     public boolean equals(Object obj) {
@@ -75,6 +165,11 @@ public final class LineSegment extends AbstractCurve {
         return (seg.a == a && seg.b == b) || (seg.a == b && seg.b == a);
     }
 
+    @Override
+    public int hashCode() {
+        return 31 * (System.identityHashCode(a) + System.identityHashCode(b)) + 2;
+    }
+
     public final AbstractPoint from() {
         return a;
     }
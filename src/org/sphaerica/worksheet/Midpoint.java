@@ -45,4 +45,9 @@ public final class Midpoint extends AbstractPoint {
         return (seg.a == a && seg.b == b) || (seg.a == b && seg.b == a);
     }
 
+    @Override
+    public int hashCode() {
+        return 31 * (System.identityHashCode(a) + System.identityHashCode(b)) + 1;
+    }
+
 }
@@ -4,7 +4,7 @@ import org.sphaerica.math.UnitVector;
 
 public final class ParametricPoint extends AbstractPoint {
 
-	private double param, speed = 0;
+	private volatile double param, speed = 0;
 	AbstractCurve parent;
 
 	public ParametricPoint(AbstractCurve curve, double param) {
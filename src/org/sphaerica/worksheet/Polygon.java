@@ -1,12 +1,34 @@
 package org.sphaerica.worksheet;
 
+import org.sphaerica.math.Cap;
 import org.sphaerica.math.SphericalMath;
 import org.sphaerica.math.UnitVector;
+import org.sphaerica.math.Vector3D;
 
+import java.util.Arrays;
+
+/**
+ * A simple spherical polygon given by its vertices in order along the
+ * boundary. The polygon is triangulated on update.
+ * <p>
+ * Polygons inside an open hemisphere are handled in the gnomonic projection
+ * to the tangent plane at the center of their bounding cap, where great
+ * circle arcs are straight lines: the triangulation is found by ear clipping
+ * and points are located with a grid of about one cell per vertex, counting
+ * the edges crossed from the center of a cell. Larger polygons are
+ * triangulated by ear clipping on the sphere, taking the smaller side of the
+ * boundary as the inside, and points are located by testing the triangles.
+ */
 public class Polygon extends AbstractSphericalObject {
 
     private final AbstractPoint[] points;
-    private double area = 0;
+    private volatile double area = 0;
+
+    /**
+     * Triangulation and point location index of the last update. Never
+     * modified, updates replace it.
+     */
+    private volatile Outline outline = null;
 
     public Polygon(AbstractPoint... points) {
         super(points);
@@ -18,21 +40,37 @@ public class Polygon extends AbstractSphericalObject {
         visitor.visit(this);
     }
 
+    /**
+     * Returns 0 for points inside the polygon and the distance of the
+     * closest edge for points outside.
+     */
     @Override
     public double distance(UnitVector o) {
+        final Outline s = outline;
+        if (s == null)
+            return Double.POSITIVE_INFINITY;
+        if (s.contains(o))
+            return 0;
+        return s.edgeDistance(o);
+    }
 
-        for (int i = 0; i < points.length - 2; i++)
-            if (SphericalMath.isInsideTriangle(o, points[i].getLocation(), points[i + 1].getLocation(), points[i + 2].getLocation()))
-                return 0;
+    @Override
+    void updateImpl() {
+        final double[] v = new double[3 * points.length];
+        for (int i = 0; i < points.length; i++)
+            points[i].copyLocation(v, 3 * i);
 
-        return Double.POSITIVE_INFINITY; // TODO do precise calculations.
+        final Outline s = new Outline(v, Cap.around(v, points.length));
+        double a = 0;
+        for (int i = 0; i < s.triangles.length; i += 3)
+            a += SphericalMath.excess(v, 3 * s.triangles[i], 3 * s.triangles[i + 1], 3 * s.triangles[i + 2]);
+        outline = s;
+        area = a;
     }
 
     @Override
-    void updateImpl() {
-        area = 0;
-        for (int i = 0; i < points.length - 2; i++)
-            area += Math.PI * 2 - SphericalMath.area(points[i].getLocation(), points[i + 1].getLocation(), points[i + 2].getLocation());
+    Cap boundsImpl() {
+        return outline.bounds;
     }
 
     @Override
@@ -47,4 +85,391 @@ public class Polygon extends AbstractSphericalObject {
     public AbstractPoint[] getPoints() {
         return points;
     }
+
+    /**
+     * Returns the triangulation of the last update as indices of the points,
+     * three for each triangle. The array must not be modified.
+     *
+     * @return indices of the vertices of the triangles
+     */
+    public int[] getTriangles() {
+        final Outline s = outline;
+        return s == null ? new int[0] : s.triangles;
+    }
+
+    /**
+     * Triangulation, bounds and point location index of the polygon.
+     */
+    private static final class Outline {
+
+        /**
+         * Coordinates of the vertices.
+         */
+        final double[] v;
+        final int n;
+
+        final Cap bounds;
+        final int[] triangles;
+
+        /**
+         * Tangent plane: center of the projection and two base vectors, or
+         * null if the polygon is not inside a hemisphere.
+         */
+        private final double[] plane;
+
+        /**
+         * Gnomonic coordinates of the vertices.
+         */
+        private double[] px, py;
+
+        /**
+         * Grid over the bounding box of the projected polygon: the edges
+         * passing each cell, edge i connecting vertex i and i + 1, and
+         * whether the center of each cell is inside. Cells are indexed by
+         * column times size plus row.
+         */
+        private double minX, maxX, minY, maxY, width, height;
+        private int size;
+        private int[][] cells;
+        private boolean[] inside;
+
+        private volatile double[] caps = null;
+
+        Outline(double[] v, Cap bounds) {
+            this.v = v;
+            this.n = v.length / 3;
+            this.bounds = bounds;
+
+            if (n < 3) {
+                plane = null;
+                triangles = new int[0];
+                return;
+            }
+            if (bounds.isSphere() || bounds.getRadius() >= Math.PI / 2) {
+                plane = null;
+                triangles = clipEars();
+                return;
+            }
+
+            plane = new double[9];
+            Vector3D.set(plane, 0, bounds.getX(), bounds.getY(), bounds.getZ());
+            // any vector not parallel to the center gives a base
+            if (Math.abs(plane[0]) < 0.5)
+                Vector3D.set(plane, 3, 1, 0, 0);
+            else
+                Vector3D.set(plane, 3, 0, 1, 0);
+            Vector3D.cross(plane, 0, plane, 3, plane, 3);
+            Vector3D.normalize(plane, 3);
+            Vector3D.cross(plane, 0, plane, 3, plane, 6);
+
+            px = new double[n];
+            py = new double[n];
+            for (int i = 0; i < n; i++) {
+                final double d = Vector3D.dot(plane, 0, v, 3 * i);
+                px[i] = Vector3D.dot(plane, 3, v, 3 * i) / d;
+                py[i] = Vector3D.dot(plane, 6, v, 3 * i) / d;
+            }
+
+            triangles = clipEars();
+            buildGrid();
+        }
+
+        /**
+         * Positive if c is on the left of the way from a to b: in the tangent
+         * plane if there is one, otherwise on the sphere.
+         */
+        private double cross(int a, int b, int c) {
+            if (plane == null)
+                return Vector3D.det(v, 3 * a, v, 3 * b, v, 3 * c);
+            return (px[b] - px[a]) * (py[c] - py[a]) - (py[b] - py[a]) * (px[c] - px[a]);
+        }
+
+        /**
+         * Decides if the inside is on the left of the boundary. In the plane
+         * it is the sign of the area. On the sphere the sum of the turning
+         * angles is 2 pi minus the area on the left, so it is positive iff
+         * the smaller side is on the left.
+         */
+        private boolean isCounterClockwise() {
+            double signed = 0;
+            if (plane != null) {
+                for (int i = 0; i < n; i++) {
+                    final int j = (i + 1) % n;
+                    signed += px[i] * py[j] - px[j] * py[i];
+                }
+                return signed >= 0;
+            }
+
+            final double[] w = new double[9];
+            for (int i = 0; i < n; i++) {
+                final int a = 3 * ((i + n - 1) % n), b = 3 * i, c = 3 * ((i + 1) % n);
+                Vector3D.cross(v, a, v, b, w, 0);
+                Vector3D.cross(v, b, v, c, w, 3);
+                Vector3D.cross(w, 0, w, 3, w, 6);
+                signed += Math.atan2(Vector3D.dot(w, 6, v, b), Vector3D.dot(w, 0, w, 3));
+            }
+            return signed >= 0;
+        }
+
+        /**
+         * Triangulates the polygon by cutting off ears. Only the reflex
+         * vertices can be inside an ear, they are kept in a list. If the
+         * polygon turns out not to be simple, the rest is cut off as it is.
+         *
+         * @return indices of the vertices of the triangles
+         */
+        private int[] clipEars() {
+            final boolean ccw = isCounterClockwise();
+
+            // circular list of the remaining vertices, counter clockwise
+            final int[] next = new int[n], prev = new int[n];
+            for (int i = 0; i < n; i++) {
+                next[i] = ccw ? (i + 1) % n : (i + n - 1) % n;
+                prev[next[i]] = i;
+            }
+
+            // reflex vertices and their positions in the list
+            final int[] reflex = new int[n], position = new int[n];
+            int reflexCount = 0;
+            for (int i = 0; i < n; i++) {
+                position[i] = -1;
+                if (cross(prev[i], i, next[i]) <= 0) {
+                    position[i] = reflexCount;
+                    reflex[reflexCount++] = i;
+                }
+            }
+
+            final int[] t = new int[3 * (n - 2)];
+            int count = 0, remaining = n, current = 0, tries = 0;
+            while (remaining > 3) {
+                final int a = prev[current], b = current, c = next[current];
+                if (isEar(a, b, c, reflex, reflexCount) || tries > remaining) {
+                    t[count++] = a;
+                    t[count++] = b;
+                    t[count++] = c;
+                    next[a] = c;
+                    prev[c] = a;
+                    remaining--;
+                    tries = 0;
+
+                    // the clipped vertex and neighbours turning convex leave
+                    for (int v : new int[]{b, a, c}) {
+                        if (position[v] < 0 || (v != b && cross(prev[v], v, next[v]) <= 0))
+                            continue;
+                        final int last = reflex[--reflexCount];
+                        reflex[position[v]] = last;
+                        position[last] = position[v];
+                        position[v] = -1;
+                    }
+                    current = c;
+                } else {
+                    current = c;
+                    tries++;
+                }
+            }
+            t[count++] = prev[current];
+            t[count++] = current;
+            t[count] = next[current];
+            return t;
+        }
+
+        private boolean isEar(int a, int b, int c, int[] reflex, int reflexCount) {
+            if (cross(a, b, c) <= 0)
+                return false;
+            for (int i = 0; i < reflexCount; i++) {
+                final int p = reflex[i];
+                if (p == a || p == b || p == c)
+                    continue;
+                if (cross(a, b, p) >= 0 && cross(b, c, p) >= 0 && cross(c, a, p) >= 0)
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Builds the grid of the projected polygon: the edges passing each
+         * cell and whether the center of each cell is inside the polygon.
+         * The latter is found by scanning the horizontal lines through the
+         * centers.
+         */
+        private void buildGrid() {
+            minX = maxX = px[0];
+            minY = maxY = py[0];
+            for (int i = 1; i < n; i++) {
+                minX = Math.min(minX, px[i]);
+                maxX = Math.max(maxX, px[i]);
+                minY = Math.min(minY, py[i]);
+                maxY = Math.max(maxY, py[i]);
+            }
+            size = Math.max(1, Math.min(256, (int) Math.ceil(Math.sqrt(n))));
+            width = maxX > minX ? (maxX - minX) / size : 1;
+            height = maxY > minY ? (maxY - minY) / size : 1;
+
+            // edges are registered in the cells of their bounding box
+            final int[] counts = new int[size * size];
+            for (int pass = 0; pass < 2; pass++) {
+                for (int e = 0; e < n; e++) {
+                    final int f = (e + 1) % n;
+                    final int c0 = column(Math.min(px[e], px[f])), c1 = column(Math.max(px[e], px[f]));
+                    final int r0 = row(Math.min(py[e], py[f])), r1 = row(Math.max(py[e], py[f]));
+                    for (int c = c0; c <= c1; c++)
+                        for (int r = r0; r <= r1; r++) {
+                            if (pass == 0)
+                                counts[c * size + r]++;
+                            else
+                                cells[c * size + r][--counts[c * size + r]] = e;
+                        }
+                }
+                if (pass == 0) {
+                    cells = new int[size * size][];
+                    for (int i = 0; i < cells.length; i++)
+                        cells[i] = new int[counts[i]];
+                }
+            }
+
+            inside = new boolean[size * size];
+            final double[] xs = new double[n];
+            for (int r = 0; r < size; r++) {
+                final double y = minY + (r + 0.5) * height;
+                int k = 0;
+                for (int e = 0; e < n; e++) {
+                    final int f = (e + 1) % n;
+                    if ((py[e] > y) != (py[f] > y))
+                        xs[k++] = px[e] + (y - py[e]) * (px[f] - px[e]) / (py[f] - py[e]);
+                }
+                Arrays.sort(xs, 0, k);
+                int left = 0;
+                for (int c = 0; c < size; c++) {
+                    final double x = minX + (c + 0.5) * width;
+                    while (left < k && xs[left] < x)
+                        left++;
+                    inside[c * size + r] = (left & 1) == 1;
+                }
+            }
+        }
+
+        private int column(double x) {
+            return Math.max(0, Math.min(size - 1, (int) ((x - minX) / width)));
+        }
+
+        private int row(double y) {
+            return Math.max(0, Math.min(size - 1, (int) ((y - minY) / height)));
+        }
+
+        /**
+         * Decides if the point is inside the polygon.
+         */
+        boolean contains(UnitVector o) {
+            if (n < 3)
+                return false;
+            if (plane == null) {
+                for (int i = 0; i < triangles.length; i += 3)
+                    if (SphericalMath.isInsideTriangle(o, vertex(triangles[i]), vertex(triangles[i + 1]),
+                            vertex(triangles[i + 2])))
+                        return true;
+                return false;
+            }
+
+            if (!bounds.contains(o))
+                return false;
+            final double d = plane[0] * o.getX() + plane[1] * o.getY() + plane[2] * o.getZ();
+            final double x = (plane[3] * o.getX() + plane[4] * o.getY() + plane[5] * o.getZ()) / d;
+            final double y = (plane[6] * o.getX() + plane[7] * o.getY() + plane[8] * o.getZ()) / d;
+            if (x < minX || x > maxX || y < minY || y > maxY)
+                return false;
+
+            // walk from the center of the cell, counting the edges crossed
+            final int cell = column(x) * size + row(y);
+            final double cx = minX + (cell / size + 0.5) * width, cy = minY + (cell % size + 0.5) * height;
+            boolean result = inside[cell];
+            for (int e : cells[cell]) {
+                final int f = (e + 1) % n;
+                if ((side(px[e], py[e], px[f], py[f], cx, cy) > 0) != (side(px[e], py[e], px[f], py[f], x, y) > 0)
+                        && (side(cx, cy, x, y, px[e], py[e]) > 0) != (side(cx, cy, x, y, px[f], py[f]) > 0))
+                    result = !result;
+            }
+            return result;
+        }
+
+        private static double side(double ax, double ay, double bx, double by, double x, double y) {
+            return (bx - ax) * (y - ay) - (by - ay) * (x - ax);
+        }
+
+        private UnitVector vertex(int i) {
+            return new UnitVector(v[3 * i], v[3 * i + 1], v[3 * i + 2]);
+        }
+
+        /**
+         * Returns the spherical distance of the point and the closest edge.
+         */
+        double edgeDistance(UnitVector o) {
+            final double[] w = new double[6];
+            o.copyTo(w, 0);
+            final double[] c = edgeCaps();
+            double min = Double.POSITIVE_INFINITY, cos = 0, sin = 0;
+            for (int i = 0; i < n; i++) {
+                // skip edges whose cap is farther than the closest edge so far
+                final int e = 6 * i;
+                if (min + c[e + 5] < Math.PI
+                        && Vector3D.dot(c, e, w, 0) <= cos * c[e + 3] - sin * c[e + 4])
+                    continue;
+
+                final double d = arcDistance(v, 3 * i, 3 * ((i + 1) % n), w);
+                if (d < min) {
+                    min = d;
+                    cos = Math.cos(d);
+                    sin = Math.sin(d);
+                }
+            }
+            return min;
+        }
+
+        /**
+         * Caps around the edges for skipping far edges: the midpoint, the
+         * cosine and sine of the half length and the half length itself for
+         * each edge, computed on first use.
+         */
+        private double[] edgeCaps() {
+            double[] c = caps;
+            if (c != null)
+                return c;
+            c = new double[6 * n];
+            for (int i = 0; i < n; i++) {
+                final int a = 3 * i, b = 3 * ((i + 1) % n), e = 6 * i;
+                Vector3D.add(v, a, v, b, c, e);
+                final double half = Vector3D.normalize(c, e) > 0
+                        ? Vector3D.sphericalDistance(v, a, v, b) / 2 : Double.NaN;
+                c[e + 3] = Math.cos(half);
+                c[e + 4] = Math.sin(half);
+                c[e + 5] = half;
+            }
+            return caps = c;
+        }
+
+        /**
+         * Distance of the point stored at the beginning of w and the arc from
+         * a to b. The rest of w is used as a temporary.
+         */
+        private static double arcDistance(double[] v, int a, int b, double[] w) {
+            Vector3D.cross(v, a, v, b, w, 3);
+            final double len = Vector3D.normalize(w, 3);
+            if (len > 0) {
+                // the closest point of the great circle is on the arc
+                final double ta = det(v, a, w), tb = -det(v, b, w);
+                if (ta >= 0 && tb >= 0)
+                    return Math.asin(Math.min(1, Math.abs(Vector3D.dot(w, 3, w, 0))));
+            }
+            return Math.min(Vector3D.sphericalDistance(v, a, w, 0), Vector3D.sphericalDistance(v, b, w, 0));
+        }
+
+        /**
+         * Determinant of the vector at p, the point at 0 and the normal at 3
+         * of w.
+         */
+        private static double det(double[] v, int p, double[] w) {
+            final double cx = v[p + 1] * w[2] - v[p + 2] * w[1], cy = v[p + 2] * w[0] - v[p] * w[2],
+                    cz = v[p] * w[1] - v[p + 1] * w[0];
+            return cx * w[3] + cy * w[4] + cz * w[5];
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package org.sphaerica.worksheet;
 
+import org.sphaerica.math.Cap;
 import org.sphaerica.math.UnitVector;
 
 import javax.swing.event.ChangeListener;
@@ -60,6 +61,23 @@ public interface SphericalObject {
      */
     double distance(UnitVector cursor);
 
+    /**
+     * Returns a spherical cap containing the object, computed on update. The
+     * cap is not necessarily the smallest one.
+     *
+     * @return bounding cap of the object
+     */
+    Cap getBounds();
+
+    /**
+     * Returns a number changing whenever the object is recomputed or its
+     * appearance changes. Used to decide if cached data of the object is
+     * still current.
+     *
+     * @return revision of the object
+     */
+    int getRevision();
+
     /**
      * The appearance map may contain custom properties for each object. Such properties include
      * styling information, like color and size, label text or other metadata.
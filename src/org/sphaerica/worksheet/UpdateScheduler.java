@@ -0,0 +1,305 @@
+package org.sphaerica.worksheet;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The update scheduler keeps track of the objects invalidated since the last
+ * update of the worksheet. On update only the invalidated objects are
+ * recomputed, parents always before their children. Objects that were not
+ * invalidated are not touched at all. Large updates may optionally be run on
+ * all processors, see {@link #setParallel(boolean)}.
+ * <p>
+ * Updates are writes of the worksheet: they run holding the monitor of the
+ * worksheet, so readers validating their stamp never see a half updated
+ * geometry.
+ */
+public final class UpdateScheduler {
+
+    /**
+     * Sheets with fewer objects to update are always updated serially.
+     */
+    private final static int PARALLEL_THRESHOLD = 4096;
+
+    /**
+     * Levels with fewer objects than this are updated in the calling thread.
+     */
+    private final static int LEVEL_THRESHOLD = 512;
+
+    private final Worksheet sheet;
+
+    /**
+     * Guards the dirty set. Separate from the monitor of the scheduler so
+     * objects can be invalidated while an update is running.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Objects invalidated since the last update.
+     */
+    private Set<AbstractSphericalObject> dirty = createSet();
+
+    /**
+     * Pool for parallel updates, created on first use.
+     */
+    private ExecutorService pool = null;
+
+    private boolean parallel = false;
+
+    UpdateScheduler(Worksheet sheet) {
+        this.sheet = sheet;
+    }
+
+    /**
+     * @return worksheet of this scheduler.
+     */
+    Worksheet getWorksheet() {
+        return sheet;
+    }
+
+    private static Set<AbstractSphericalObject> createSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<AbstractSphericalObject, Boolean>());
+    }
+
+    /**
+     * Registers an invalidated object. Called by the object itself.
+     *
+     * @param obj object that lost its valid state
+     */
+    void markDirty(AbstractSphericalObject obj) {
+        synchronized (lock) {
+            dirty.add(obj);
+        }
+    }
+
+    /**
+     * Drops an object from the pending updates. Used when the object is
+     * removed from the construction.
+     *
+     * @param obj object to forget
+     */
+    void forget(AbstractSphericalObject obj) {
+        synchronized (lock) {
+            dirty.remove(obj);
+        }
+    }
+
+    /**
+     * Invalidates an object and its descendants as part of a write of the
+     * worksheet. Objects invalidated by an update belong to the write of the
+     * update.
+     *
+     * @param obj object that lost its valid state
+     */
+    void invalidate(AbstractSphericalObject obj) {
+        if (Thread.currentThread() instanceof Worker) {
+            obj.invalidateTree();
+            return;
+        }
+        synchronized (sheet) {
+            sheet.beginWrite();
+            try {
+                obj.invalidateTree();
+            } finally {
+                sheet.endWrite();
+            }
+        }
+    }
+
+    /**
+     * Decides if there are objects waiting for an update.
+     *
+     * @return true iff some objects are invalid.
+     */
+    public boolean isPending() {
+        synchronized (lock) {
+            return !dirty.isEmpty();
+        }
+    }
+
+    /**
+     * Turns on or off the parallel update mode. In parallel mode the objects
+     * of large updates are partitioned into levels by their depth in the
+     * dependency graph, and the objects of a level are updated concurrently.
+     *
+     * @param p true to update large sheets on all processors
+     */
+    public void setParallel(boolean p) {
+        synchronized (sheet) {
+            parallel = p;
+            if (!p && pool != null) {
+                pool.shutdown();
+                pool = null;
+            }
+        }
+    }
+
+    /**
+     * @return true iff parallel update mode is on.
+     */
+    public boolean isParallel() {
+        synchronized (sheet) {
+            return parallel;
+        }
+    }
+
+    /**
+     * Updates all invalidated objects in topological order. Objects getting
+     * invalidated during the update are processed in the same call. The
+     * update is committed as a single write of the worksheet.
+     */
+    public void update() {
+        if (!isPending())
+            return;
+
+        synchronized (sheet) {
+            sheet.beginWrite();
+            try {
+                while (true) {
+                    final Set<AbstractSphericalObject> objects;
+                    synchronized (lock) {
+                        if (dirty.isEmpty())
+                            return;
+                        objects = dirty;
+                        dirty = createSet();
+                    }
+
+                    final List<AbstractSphericalObject> order = sort(objects);
+                    sheet.recordMoved(order);
+                    if (parallel && order.size() >= PARALLEL_THRESHOLD)
+                        updateLevels(order);
+                    else
+                        for (AbstractSphericalObject obj : order)
+                            obj.update();
+                }
+            } finally {
+                sheet.endWrite();
+            }
+        }
+    }
+
+    /**
+     * Partitions the topologically ordered objects into levels and updates
+     * each level on the pool. An object's level is one more than the highest
+     * level of its parents being updated, so objects of the same level do not
+     * depend on each other.
+     *
+     * @param order objects in topological order
+     */
+    private void updateLevels(List<AbstractSphericalObject> order) {
+        final Map<SphericalObject, Integer> depth = new IdentityHashMap<SphericalObject, Integer>();
+        final List<List<AbstractSphericalObject>> levels = new ArrayList<List<AbstractSphericalObject>>();
+
+        for (AbstractSphericalObject obj : order) {
+            int level = 0;
+            for (SphericalObject parent : obj.getParents()) {
+                final Integer d = depth.get(parent);
+                if (d != null && d >= level)
+                    level = d + 1;
+            }
+            depth.put(obj, level);
+            if (level == levels.size())
+                levels.add(new ArrayList<AbstractSphericalObject>());
+            levels.get(level).add(obj);
+        }
+
+        for (List<AbstractSphericalObject> level : levels) {
+            if (level.size() < LEVEL_THRESHOLD) {
+                for (AbstractSphericalObject obj : level)
+                    obj.update();
+            } else
+                updateConcurrently(level);
+        }
+    }
+
+    /**
+     * Updates the given independent objects in chunks on the pool and waits
+     * for all of them.
+     *
+     * @param level objects not depending on each other
+     */
+    private void updateConcurrently(final List<AbstractSphericalObject> level) {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    return new Worker(r);
+                }
+            });
+        }
+
+        final int chunks = Runtime.getRuntime().availableProcessors() * 4;
+        final int step = (level.size() + chunks - 1) / chunks;
+        final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(chunks);
+
+        for (int from = 0; from < level.size(); from += step) {
+            final List<AbstractSphericalObject> chunk = level.subList(from, Math.min(level.size(), from + step));
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    for (AbstractSphericalObject obj : chunk)
+                        obj.update();
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Object> result : pool.invokeAll(tasks))
+                result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Thread of the pool. Runs only while the update holding the monitor of
+     * the worksheet waits for it.
+     */
+    private static final class Worker extends Thread {
+        Worker(Runnable r) {
+            super(r, "update");
+            setDaemon(true);
+        }
+    }
+
+    /**
+     * Orders the given objects so that every object precedes its children.
+     * Children not in the set are not visited.
+     *
+     * @param objects set of objects to order
+     * @return topological order of objects
+     */
+    private static List<AbstractSphericalObject> sort(Set<AbstractSphericalObject> objects) {
+        final Set<SphericalObject> visited = Collections.newSetFromMap(new IdentityHashMap<SphericalObject, Boolean>());
+        final List<AbstractSphericalObject> postorder = new ArrayList<AbstractSphericalObject>(objects.size());
+
+        final Stack<AbstractSphericalObject> nodes = new Stack<AbstractSphericalObject>();
+        final Stack<Iterator<SphericalObject>> children = new Stack<Iterator<SphericalObject>>();
+
+        for (AbstractSphericalObject root : objects) {
+            if (!visited.add(root))
+                continue;
+            nodes.push(root);
+            children.push(root.getChildren().iterator());
+
+            while (!nodes.empty()) {
+                final Iterator<SphericalObject> iter = children.peek();
+                if (iter.hasNext()) {
+                    final SphericalObject child = iter.next();
+                    if (objects.contains(child) && visited.add(child)) {
+                        nodes.push((AbstractSphericalObject) child);
+                        children.push(child.getChildren().iterator());
+                    }
+                } else {
+                    children.pop();
+                    postorder.add(nodes.pop());
+                }
+            }
+        }
+
+        Collections.reverse(postorder);
+        return postorder;
+    }
+}
@@ -1,22 +1,95 @@
 package org.sphaerica.worksheet;
 
-import javax.swing.event.ChangeEvent;
+import org.sphaerica.math.CoordinateStore;
+
+import javax.swing.Timer;
 import javax.swing.event.ChangeListener;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Stack;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The worksheet is a collection for the geometric constructions of spherical
  * objects. The worksheet also holds information about properties of the
  * construction and the sphere.
+ * <p>
+ * Changes of the construction and of the geometry are made by a single writer
+ * at a time, holding the monitor of the worksheet. Readers, like painters and
+ * exporters, never lock: they work on an immutable snapshot of the
+ * construction and check with {@link #readStamp()} and
+ * {@link #validate(long)} that no write was committed while they were
+ * reading the geometry. A reader that must not use a torn read, like a
+ * painter or an exporter, reads again, and after {@link #OPTIMISTIC_READS}
+ * tries reads under the monitor of the worksheet, so a busy writer can not
+ * starve it.
+ * <p>
+ * Change listeners are notified on the event dispatch thread, at most once a
+ * frame. Each notification is a {@link WorksheetChangeEvent} describing the
+ * changes since the previous one. Changes are not recorded while there are
+ * no listeners.
  */
 public class Worksheet {
+
+    /**
+     * Minimal delay between two change notifications in milliseconds.
+     */
+    private final static int FRAME = 16;
+
+    /**
+     * Number of reads without locking a reader tries before reading under the
+     * monitor of the worksheet.
+     */
+    public final static int OPTIMISTIC_READS = 3;
+
     private final Construction construction = new Construction();
-    private final List<ChangeListener> changeListeners = new ArrayList<ChangeListener>();
+    private final UpdateScheduler scheduler = new UpdateScheduler(this);
+    private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<ChangeListener>();
     private final ObjectAppearanceFactory appearance = new ObjectAppearanceFactory();
 
+    /**
+     * Store of point coordinates, or null if points hold their own vectors.
+     */
+    private volatile CoordinateStore coordinates = null;
+
+    /**
+     * Write stamp, odd while a write is in progress.
+     */
+    private volatile long stamp = 0;
+
+    /**
+     * Nesting depth of the write in progress. Guarded by the monitor of the
+     * worksheet.
+     */
+    private int writers = 0;
+
+    /**
+     * Thread running a batch and the nesting depth of its batches. Written
+     * under the monitor of the worksheet.
+     */
+    private volatile Thread batch = null;
+    private int batches = 0;
+
+    /**
+     * Changes since the last notification, null if there are none of a kind.
+     * Guarded by the changes lock.
+     */
+    private final Object changes = new Object();
+    private Set<SphericalObject> added = null, removed = null, moved = null, restyled = null;
+
+    /**
+     * Sends the coalesced change notification.
+     */
+    private final Timer notifier = new Timer(FRAME, new ActionListener() {
+        public void actionPerformed(ActionEvent e) {
+            dispatchChange();
+        }
+    });
+
+    {
+        notifier.setRepeats(false);
+    }
+
     /**
      * Creates a new worker instance for this worksheet.
      *
@@ -30,12 +103,171 @@ public class Worksheet {
         return new WorksheetAnimator(this);
     }
 
+    /**
+     * Starts a write. The calling thread must hold the monitor of the
+     * worksheet. Writes may be nested.
+     */
+    void beginWrite() {
+        if (writers++ == 0)
+            stamp++;
+    }
+
+    /**
+     * Commits a write started by {@link #beginWrite()}. The outermost write
+     * updates the invalidated objects and publishes the snapshot of the
+     * construction before committing, so readers always see a fully updated
+     * geometry. Writes of a batch leave both for the end of the batch.
+     */
+    void endWrite() {
+        final boolean commit = writers == 1 && batch != Thread.currentThread();
+        try {
+            if (commit)
+                scheduler.update();
+        } finally {
+            if (commit)
+                construction.publish();
+            if (--writers == 0)
+                stamp++;
+        }
+    }
+
+    /**
+     * Starts a batch of writes in the calling thread. Objects invalidated by
+     * the writes of the batch are updated once, when the outermost batch
+     * ends. Until then readers see them invalid. Batches of other threads do
+     * not defer their updates.
+     */
+    void beginBatch() {
+        synchronized (this) {
+            if (batch == null)
+                batch = Thread.currentThread();
+            if (batch == Thread.currentThread())
+                batches++;
+        }
+    }
+
+    /**
+     * Ends a batch started by {@link #beginBatch()}. The outermost batch
+     * updates the invalidated objects in a single write.
+     */
+    void endBatch() {
+        synchronized (this) {
+            if (batch != Thread.currentThread() || --batches > 0)
+                return;
+            batch = null;
+            beginWrite();
+            endWrite();
+        }
+    }
+
+    /**
+     * Returns the write stamp to be validated after reading the geometry. The
+     * stamp is odd if a write is in progress.
+     *
+     * @return current write stamp
+     */
+    public long readStamp() {
+        return stamp;
+    }
+
+    /**
+     * Decides if the geometry read since obtaining the stamp is consistent.
+     *
+     * @param s stamp returned by {@link #readStamp()} before reading
+     * @return true iff no write was in progress or committed since
+     */
+    public boolean validate(long s) {
+        return (s & 1) == 0 && s == stamp;
+    }
+
+    /**
+     * Schedules a notification of the change listeners. Calls within the
+     * same frame result in a single notification.
+     */
     public void fireChangeListeners() {
-        ChangeEvent e = new ChangeEvent(this);
+        if (!changeListeners.isEmpty())
+            notifier.start();
+    }
+
+    private void dispatchChange() {
+        final WorksheetChangeEvent e;
+        synchronized (changes) {
+            e = new WorksheetChangeEvent(this, orEmpty(added), orEmpty(removed), orEmpty(moved), orEmpty(restyled));
+            added = removed = moved = restyled = null;
+        }
         for (ChangeListener listener : this.changeListeners)
             listener.stateChanged(e);
     }
 
+    private static Set<SphericalObject> orEmpty(Set<SphericalObject> set) {
+        return set == null ? Collections.<SphericalObject>emptySet() : set;
+    }
+
+    /**
+     * Records an object added to the construction.
+     */
+    private void recordAdded(SphericalObject obj) {
+        if (changeListeners.isEmpty())
+            return;
+        synchronized (changes) {
+            if (removed != null)
+                removed.remove(obj);
+            if (added == null)
+                added = WorksheetChangeEvent.createSet();
+            added.add(obj);
+        }
+    }
+
+    /**
+     * Records an object removed from the construction. Objects added since
+     * the last notification are simply forgotten.
+     */
+    private void recordRemoved(SphericalObject obj) {
+        if (changeListeners.isEmpty())
+            return;
+        synchronized (changes) {
+            if (moved != null)
+                moved.remove(obj);
+            if (restyled != null)
+                restyled.remove(obj);
+            if (added != null && added.remove(obj))
+                return;
+            if (removed == null)
+                removed = WorksheetChangeEvent.createSet();
+            removed.add(obj);
+        }
+    }
+
+    /**
+     * Records the objects recomputed by an update.
+     *
+     * @param objects updated objects
+     */
+    void recordMoved(Collection<? extends SphericalObject> objects) {
+        if (changeListeners.isEmpty())
+            return;
+        synchronized (changes) {
+            if (moved == null)
+                moved = WorksheetChangeEvent.createSet();
+            moved.addAll(objects);
+        }
+    }
+
+    /**
+     * Records an object whose appearance changed.
+     *
+     * @param obj restyled object
+     */
+    void recordRestyled(SphericalObject obj) {
+        if (changeListeners.isEmpty())
+            return;
+        synchronized (changes) {
+            if (restyled == null)
+                restyled = WorksheetChangeEvent.createSet();
+            restyled.add(obj);
+        }
+    }
+
     public void addChangeListener(ChangeListener l) {
         this.changeListeners.add(l);
     }
@@ -52,47 +284,176 @@ public class Worksheet {
         return this.construction;
     }
 
+    /**
+     * Sets the store keeping the coordinates of the points of the construction
+     * in primitive arrays. This reduces the memory footprint of large sheets,
+     * but {@link AbstractPoint#getLocation()} creates a new vector on each
+     * call. The store can only be set on an empty worksheet.
+     *
+     * @param store coordinate store or null to keep vector objects
+     * @throws IllegalStateException if the construction is not empty
+     */
+    public void setCoordinateStore(CoordinateStore store) {
+        synchronized (this) {
+            if (construction.size() > 0)
+                throw new IllegalStateException("construction is not empty.");
+            coordinates = store;
+        }
+    }
+
+    /**
+     * @return store of point coordinates or null if there is none.
+     */
+    public CoordinateStore getCoordinateStore() {
+        return coordinates;
+    }
+
+    /**
+     * Returns the scheduler recomputing the invalidated objects of the
+     * construction.
+     *
+     * @return update scheduler of this worksheet
+     */
+    public UpdateScheduler getScheduler() {
+        return this.scheduler;
+    }
+
     /**
      * The construction holds the list of geometric objects. It also manager the
-     * addition and removal of object hiearchies.
+     * addition and removal of object hiearchies. The objects are kept in a
+     * dense array in order of insertion, an identity index maps each object to
+     * its slot. Removed slots are left empty and the array is compacted when
+     * more than half of it is unused. Readers iterate over an immutable
+     * snapshot that is shared until the next structural change. Objects
+     * defined by their parents are also hash-consed, so an equal object can be
+     * looked up without scanning the construction.
+     * <p>
+     * Structural changes are writes of the worksheet. The snapshot of the
+     * construction is published when a write changing it commits, outside of
+     * batches, and readers take the published one without locking.
      */
     public class Construction implements Iterable<SphericalObject> {
-        private final List<SphericalObject> contents = new ArrayList<SphericalObject>();
+        private SphericalObject[] contents = new SphericalObject[16];
+        private final Map<SphericalObject, Integer> index = new IdentityHashMap<SphericalObject, Integer>();
+
+        /**
+         * Canonical instance for each equality class of objects, and the
+         * other equal objects of the classes having more, in order of
+         * insertion. Guarded by the monitor of the worksheet.
+         */
+        private final Map<SphericalObject, SphericalObject> canonical = new HashMap<SphericalObject, SphericalObject>();
+        private final Map<SphericalObject, List<SphericalObject>> duplicates = new HashMap<SphericalObject, List<SphericalObject>>();
+
+        /**
+         * Number of used slots in the contents array, including empty ones.
+         */
+        private int length = 0;
+
+        /**
+         * Number of structural changes so far. Guarded by the monitor of the
+         * worksheet.
+         */
+        private long version = 0;
+
+        /**
+         * Last snapshot taken by the writer, possibly of an older version.
+         * Guarded by the monitor of the worksheet.
+         */
+        private Snapshot snapshot = new Snapshot(new SphericalObject[0], 0);
+
+        /**
+         * Snapshot of the last committed version, served to the readers.
+         */
+        private volatile Snapshot committed = snapshot;
 
         public Construction() {
         }
 
         public boolean contains(SphericalObject obj) {
-            return contents.contains(obj);
+            return index.containsKey(obj);
+        }
+
+        /**
+         * Looks up the object of the construction equal to the parameter. For
+         * derived objects equality means same kind and same parents. The
+         * caller must hold the monitor of the worksheet.
+         *
+         * @param probe object to look up, not necessarily in the construction
+         * @return equal object in the construction or null if there is none
+         */
+        SphericalObject find(SphericalObject probe) {
+            return canonical.get(probe);
+        }
+
+        /**
+         * @return number of objects in the construction.
+         */
+        public int size() {
+            return index.size();
         }
 
         public void clear() {
-            Iterator<SphericalObject> iter = iterator();
-            while (iter.hasNext()) {
-                iter.remove();
-                iter.next();
+            synchronized (Worksheet.this) {
+                beginWrite();
+                try {
+                    for (SphericalObject obj : this)
+                        remove(obj);
+                } finally {
+                    endWrite();
+                }
             }
         }
 
         public void add(SphericalObject object) {
-            if (this.contents.contains(object)) {
+            synchronized (Worksheet.this) {
+                beginWrite();
+                try {
+                    insert(object);
+                } finally {
+                    endWrite();
+                }
+            }
+        }
+
+        private void insert(SphericalObject object) {
+            if (this.index.containsKey(object)) {
                 return;
             }
             for (SphericalObject parent : object.getParents()) {
-                add(parent);
+                insert(parent);
             }
 
             getAppearanceFactory().init(object);
 
-            this.contents.add(object);
+            if (length == contents.length)
+                contents = Arrays.copyOf(contents, length * 2);
+            this.contents[length] = object;
+            this.index.put(object, length++);
+            register(object);
+            changed();
 
             for (SphericalObject parent : object.getParents())
                 parent.registerChild(object);
 
+            if (object instanceof AbstractSphericalObject)
+                ((AbstractSphericalObject) object).attach(scheduler);
+
+            recordAdded(object);
         }
 
         public void remove(SphericalObject object) {
-            if (!this.contents.contains(object)) {
+            synchronized (Worksheet.this) {
+                beginWrite();
+                try {
+                    delete(object);
+                } finally {
+                    endWrite();
+                }
+            }
+        }
+
+        private void delete(SphericalObject object) {
+            if (!this.index.containsKey(object)) {
                 return;
             }
 
@@ -102,8 +463,16 @@ public class Worksheet {
             while (!levels.empty()) {
                 SphericalObject obj = levels.pop();
 
-                if (!contents.remove(obj))
+                final Integer slot = index.remove(obj);
+                if (slot == null)
                     continue;
+                contents[slot] = null;
+                unregister(obj);
+                changed();
+
+                if (obj instanceof AbstractSphericalObject)
+                    ((AbstractSphericalObject) obj).detach();
+                recordRemoved(obj);
 
                 for (SphericalObject child : obj.getChildren())
                     levels.push(child);
@@ -111,24 +480,181 @@ public class Worksheet {
 
             for (SphericalObject parent : object.getParents())
                 parent.unregisterChild(object);
+
+            if (length > 16 && index.size() * 2 < length)
+                compact();
+        }
+
+        /**
+         * Registers an inserted object as the canonical instance of its
+         * equality class, or as a duplicate if there is one already.
+         */
+        private void register(SphericalObject object) {
+            if (!canonical.containsKey(object)) {
+                canonical.put(object, object);
+                return;
+            }
+            List<SphericalObject> others = duplicates.get(object);
+            if (others == null)
+                duplicates.put(object, others = new ArrayList<SphericalObject>(1));
+            others.add(object);
+        }
+
+        /**
+         * Unregisters a deleted object. The first remaining duplicate of a
+         * canonical instance takes its place.
+         */
+        private void unregister(SphericalObject object) {
+            final List<SphericalObject> others = duplicates.get(object);
+            if (canonical.get(object) == object) {
+                canonical.remove(object);
+                if (others == null)
+                    return;
+                duplicates.remove(object);
+                final SphericalObject next = others.remove(0);
+                canonical.put(next, next);
+                if (!others.isEmpty())
+                    duplicates.put(next, others);
+            } else if (others != null) {
+                for (Iterator<SphericalObject> i = others.iterator(); i.hasNext(); )
+                    if (i.next() == object)
+                        i.remove();
+                if (others.isEmpty())
+                    duplicates.remove(object);
+            }
+        }
+
+        /**
+         * Moves the objects to the beginning of the array keeping their order
+         * and updates the slot index.
+         */
+        private void compact() {
+            int j = 0;
+            for (int i = 0; i < length; i++) {
+                final SphericalObject obj = contents[i];
+                if (obj == null)
+                    continue;
+                contents[j] = obj;
+                index.put(obj, j++);
+            }
+            Arrays.fill(contents, j, length, null);
+            length = j;
+        }
+
+        private void changed() {
+            version++;
+        }
+
+        /**
+         * Returns an immutable snapshot of the objects. The same instance is
+         * returned until the construction is changed. The writer and the thread
+         * of a batch always get the current version. Other
+         * threads get the last published version.
+         *
+         * @return snapshot of the last committed version
+         */
+        public Snapshot snapshot() {
+            // the thread of a batch sees its own changes not yet published.
+            if (!Thread.holdsLock(Worksheet.this) && batch != Thread.currentThread())
+                return committed;
+            synchronized (Worksheet.this) {
+                if (snapshot.getVersion() != version)
+                    snapshot = collect(version);
+                return snapshot;
+            }
+        }
+
+        /**
+         * Publishes the snapshot of the current version to the readers. Called
+         * by the writer when committing.
+         */
+        void publish() {
+            if (committed.getVersion() != version)
+                committed = snapshot();
+        }
+
+        private Snapshot collect(long ver) {
+            final SphericalObject[] objects = new SphericalObject[index.size()];
+            int j = 0;
+            for (int i = 0; i < length; i++)
+                if (contents[i] != null)
+                    objects[j++] = contents[i];
+            return new Snapshot(objects, ver);
+        }
+
+        /**
+         * Iterates over the current snapshot. Removing through the iterator
+         * removes the object from the construction.
+         */
+        public Iterator<SphericalObject> iterator() {
+            final Snapshot array = snapshot();
+
+            return new Iterator<SphericalObject>() {
+                int i = 0;
+
+                public boolean hasNext() {
+                    return this.i < array.size();
+                }
+
+                public SphericalObject next() {
+                    return array.get(i++);
+                }
+
+                public void remove() {
+                    Worksheet.Construction.this.remove(array.get(i - 1));
+                }
+            };
+        }
+    }
+
+    /**
+     * An immutable list of the objects of a construction at a given version.
+     */
+    public static final class Snapshot implements Iterable<SphericalObject> {
+        private final SphericalObject[] objects;
+        private final long version;
+
+        private Snapshot(SphericalObject[] array, long ver) {
+            objects = array;
+            version = ver;
+        }
+
+        /**
+         * @return number of objects in the snapshot.
+         */
+        public int size() {
+            return objects.length;
+        }
+
+        /**
+         * @param i position of object in order of insertion
+         * @return object at the given position
+         */
+        public SphericalObject get(int i) {
+            return objects[i];
+        }
+
+        /**
+         * @return version of the construction this snapshot was taken of.
+         */
+        public long getVersion() {
+            return version;
         }
 
         public Iterator<SphericalObject> iterator() {
             return new Iterator<SphericalObject>() {
                 int i = 0;
-                final SphericalObject[] array = contents
-                        .toArray(new SphericalObject[0]);
 
                 public boolean hasNext() {
-                    return this.i < this.array.length;
+                    return i < objects.length;
                 }
 
                 public SphericalObject next() {
-                    return this.array[(i++)];
+                    return objects[i++];
                 }
 
                 public void remove() {
-                    Worksheet.Construction.this.remove(this.array[i]);
+                    throw new UnsupportedOperationException("snapshot is immutable.");
                 }
             };
         }
@@ -1,35 +1,73 @@
 package org.sphaerica.worksheet;
 
-import javax.swing.*;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Worksheet Animation manager object.
  * This class is responsible for running a background thread doing interval refreshing for smooth animation.
  * The implementation visits all ParametricPoint instances in the worksheets and calls the step() methods.
+ * <p>
+ * The steps are writes of the worksheet, made on the thread of the animator,
+ * so the event dispatch thread never waits for a script holding the
+ * worksheet. A step waiting for the worksheet delays the next one.
  */
-public class WorksheetAnimator implements ActionListener {
-    private final Timer timer = new Timer(50, this);
+public class WorksheetAnimator implements Runnable {
+
+    /**
+     * Time between the end of a step and the start of the next one in
+     * milliseconds.
+     */
+    private final static int INTERVAL = 50;
+
     private final Worksheet sheet;
 
+    /**
+     * Thread of the animation, created on first play.
+     */
+    private ScheduledExecutorService executor = null;
+
+    /**
+     * Steps of the running animation, or null if paused.
+     */
+    private ScheduledFuture<?> steps = null;
+
     public WorksheetAnimator(Worksheet sheet) {
         this.sheet = sheet;
     }
 
+    /**
+     * Steps the parametric points of the worksheet once.
+     */
     @Override
-    public void actionPerformed(ActionEvent e) {
+    public void run() {
+        // an exception would cancel the rest of the steps.
+        try {
+            step();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void step() {
 
         boolean changed = false;
         synchronized (sheet) {
-            for (SphericalObject object : sheet.getConstruction()) {
-                if (!(object instanceof ParametricPoint))
-                    continue;
-                ((ParametricPoint) object).step();
-                if (!object.isValid()) {
-                    changed = true;
-                    object.update();
+            sheet.beginWrite();
+            try {
+                final Worksheet.Snapshot objects = sheet.getConstruction().snapshot();
+                for (int i = 0; i < objects.size(); i++) {
+                    final SphericalObject object = objects.get(i);
+                    if (!(object instanceof ParametricPoint))
+                        continue;
+                    ((ParametricPoint) object).step();
                 }
+                changed = sheet.getScheduler().isPending();
+            } finally {
+                sheet.endWrite();
             }
         }
         if (changed)
@@ -39,15 +77,28 @@ public class WorksheetAnimator implements ActionListener {
     /**
      * Starts background of animation.
      */
-    public void play() {
-        timer.start();
+    public synchronized void play() {
+        if (steps != null)
+            return;
+        if (executor == null)
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "animation");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        steps = executor.scheduleWithFixedDelay(this, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
     }
 
     /**
      * Stops background thread of animation.
      */
-    public void pause() {
-        timer.stop();
+    public synchronized void pause() {
+        if (steps == null)
+            return;
+        steps.cancel(false);
+        steps = null;
     }
 
     /**
@@ -55,7 +106,7 @@ public class WorksheetAnimator implements ActionListener {
      *
      * @return true iff background animation thread is running.
      */
-    public boolean isPlaying() {
-        return timer.isRunning();
+    public synchronized boolean isPlaying() {
+        return steps != null;
     }
 }
@@ -0,0 +1,74 @@
+package org.sphaerica.worksheet;
+
+import javax.swing.event.ChangeEvent;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Change event of a worksheet. The event describes all changes since the
+ * previous notification: the objects added to and removed from the
+ * construction, the objects recomputed by an update and the objects whose
+ * appearance changed. An object is reported in at most one of the added and
+ * removed sets.
+ */
+@SuppressWarnings("serial")
+public final class WorksheetChangeEvent extends ChangeEvent {
+
+    private final Set<SphericalObject> added, removed, moved, restyled;
+
+    WorksheetChangeEvent(Worksheet source, Set<SphericalObject> added, Set<SphericalObject> removed,
+                         Set<SphericalObject> moved, Set<SphericalObject> restyled) {
+        super(source);
+        this.added = Collections.unmodifiableSet(added);
+        this.removed = Collections.unmodifiableSet(removed);
+        this.moved = Collections.unmodifiableSet(moved);
+        this.restyled = Collections.unmodifiableSet(restyled);
+    }
+
+    static Set<SphericalObject> createSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<SphericalObject, Boolean>());
+    }
+
+    /**
+     * @return objects added to the construction.
+     */
+    public Set<SphericalObject> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return objects removed from the construction.
+     */
+    public Set<SphericalObject> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return objects recomputed by an update of the worksheet.
+     */
+    public Set<SphericalObject> getMoved() {
+        return moved;
+    }
+
+    /**
+     * @return objects whose appearance properties changed.
+     */
+    public Set<SphericalObject> getRestyled() {
+        return restyled;
+    }
+
+    /**
+     * @return true iff the construction itself was changed.
+     */
+    public boolean isStructural() {
+        return !added.isEmpty() || !removed.isEmpty();
+    }
+
+    /**
+     * @return true iff the event reports no change at all.
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && moved.isEmpty() && restyled.isEmpty();
+    }
+}
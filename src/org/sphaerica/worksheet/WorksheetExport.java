@@ -8,13 +8,14 @@ import org.w3c.dom.Element;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.io.File;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 public class WorksheetExport implements SphericalObjectVisitor, PointVisitor, CurveVisitor {
@@ -24,24 +25,19 @@ public class WorksheetExport implements SphericalObjectVisitor, PointVisitor, Cu
 
     public static void saveXML(final Worksheet sheet, final File file) {
         try {
-            final Map<SphericalObject, String> map = new HashMap<SphericalObject, String>();
-            for (SphericalObject o : sheet.getConstruction())
-                map.put(o, "#" + map.size());
-
-            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-            Document doc = builder.newDocument();
-
-            Element root = doc.createElement("sphaerica");
-
-            root.setAttribute("version", String.valueOf(SphaericaInfo.VERSION));
-            root.setAttribute("xmlns:style", "http://sphaerica.org/save-xml/style");
-            doc.appendChild(root);
-
-            Element construction = doc.createElement("construction");
-            root.appendChild(construction);
-
-            for (SphericalObject obj : sheet.getConstruction())
-                new WorksheetExport(construction, obj, map);
+            // the geometry is read without locking, start over if it changed.
+            Document doc = null;
+            for (int i = 0; doc == null && i < Worksheet.OPTIMISTIC_READS; i++) {
+                final long stamp = sheet.readStamp();
+                final Document read = createDocument(sheet.getConstruction().snapshot());
+                if (sheet.validate(stamp))
+                    doc = read;
+            }
+            // a writer kept changing it, read it between two writes.
+            if (doc == null)
+                synchronized (sheet) {
+                    doc = createDocument(sheet.getConstruction().snapshot());
+                }
 
             final Transformer transformer = TransformerFactory.newInstance().newTransformer();
             transformer.setOutputProperty(OutputKeys.INDENT, "yes");
@@ -53,6 +49,29 @@ public class WorksheetExport implements SphericalObjectVisitor, PointVisitor, Cu
         }
     }
 
+    private static Document createDocument(Worksheet.Snapshot objects) throws ParserConfigurationException {
+        final Map<SphericalObject, String> map = new IdentityHashMap<SphericalObject, String>();
+        for (SphericalObject o : objects)
+            map.put(o, "#" + map.size());
+
+        DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        Document doc = builder.newDocument();
+
+        Element root = doc.createElement("sphaerica");
+
+        root.setAttribute("version", String.valueOf(SphaericaInfo.VERSION));
+        root.setAttribute("xmlns:style", "http://sphaerica.org/save-xml/style");
+        doc.appendChild(root);
+
+        Element construction = doc.createElement("construction");
+        root.appendChild(construction);
+
+        for (SphericalObject obj : objects)
+            new WorksheetExport(construction, obj, map);
+
+        return doc;
+    }
+
     private WorksheetExport(Element parent, SphericalObject obj, Map<SphericalObject, String> id) {
         doc = parent.getOwnerDocument();
         map = id;
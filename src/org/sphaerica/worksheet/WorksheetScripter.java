@@ -108,6 +108,7 @@ public class WorksheetScripter implements ScriptHandle {
                     throw new RuntimeException(e);
             }
         } finally {
+            worker.commitAll();
             worker.getUndoable().popUndoable();
             locker.unlock();
             worker.fire();
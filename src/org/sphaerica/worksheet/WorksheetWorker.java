@@ -5,6 +5,7 @@ import org.sphaerica.util.Selection;
 import org.sphaerica.util.StackedUndoManager;
 
 import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.UndoableEdit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.*;
@@ -17,8 +18,21 @@ public final class WorksheetWorker implements ActionListener {
     final StackedUndoManager undoManager = new StackedUndoManager();
     final Selection<SphericalObject> selection = new Selection<SphericalObject>();
 
-    // a single cache to speed up some geometrical constructions
-    private final Map<SphericalObject, Circle> lineCache = new WeakHashMap<SphericalObject, Circle>();
+    /**
+     * Nesting depth of the open transactions of each thread.
+     */
+    private final ThreadLocal<int[]> transactions = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    /**
+     * Thread whose transaction holds the open undo group, or null. Guarded by
+     * the monitor of the worksheet.
+     */
+    private Thread owner = null;
 
     public WorksheetWorker(Worksheet sheet) {
         this.worksheet = sheet;
@@ -101,23 +115,11 @@ public final class WorksheetWorker implements ActionListener {
     }
 
     public Midpoint midpoint(AbstractPoint p1, AbstractPoint p2) {
-        Midpoint p = new Midpoint(p1, p2);
-
-        for (SphericalObject obj : worksheet.getConstruction())
-            if (p.equals(obj))
-                return (Midpoint) obj;
-
-        add(p);
-        return p;
+        return canonical(new Midpoint(p1, p2));
     }
 
     public LineSegment segment(AbstractPoint from, AbstractPoint to) {
-        LineSegment s = new LineSegment(from, to);
-        for (SphericalObject obj : worksheet.getConstruction())
-            if (s.equals(obj))
-                return (LineSegment) obj;
-        add(s);
-        return s;
+        return canonical(new LineSegment(from, to));
     }
 
     public AbstractPoint antipode(AbstractPoint to) {
@@ -128,19 +130,11 @@ public final class WorksheetWorker implements ActionListener {
     }
 
     public Circle line(AbstractPoint p) {
-        if (lineCache.containsKey(p))
-            return lineCache.get(p);
-
-        Circle line = new Circle(p);
-        add(line);
-        lineCache.put(p, line);
-        return line;
+        return canonical(new Circle(p));
     }
 
     public Circle circle(AbstractPoint a, AbstractPoint b) {
-        Circle line = new Circle(a, b);
-        add(line);
-        return line;
+        return canonical(new Circle(a, b));
     }
 
     public Polygon poly(AbstractPoint... points) {
@@ -150,28 +144,37 @@ public final class WorksheetWorker implements ActionListener {
     }
 
     public Intersection intersection(AbstractCurve a, AbstractCurve b) {
-        Intersection inter = new Intersection(a, b);
-        add(inter);
-        return inter;
+        return canonical(new Intersection(a, b));
+    }
+
+    /**
+     * Returns the object of the worksheet equal to the parameter. If there is
+     * no such object, the parameter is added to the worksheet.
+     *
+     * @param obj newly created derived object
+     * @return canonical instance of the object
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends SphericalObject> T canonical(T obj) {
+        synchronized (worksheet) {
+            final SphericalObject existing = worksheet.getConstruction().find(obj);
+            if (existing != null)
+                return (T) existing;
+            add(obj);
+            return obj;
+        }
     }
 
     public void add(final SphericalObject obj) {
 
-        undoManager.addEdit(new AbstractUndoableEdit() {
-            private final Set<SphericalObject> alles = new HashSet<SphericalObject>();
+        record(new AbstractUndoableEdit() {
+            private final List<SphericalObject> alles = descendants(obj);
 
             {
-                upload(obj);
                 super.undo();
                 redo();
             }
 
-            private void upload(SphericalObject o) {
-                this.alles.add(o);
-                for (SphericalObject child : o.getChildren())
-                    upload(child);
-            }
-
             public void redo() {
                 super.redo();
 
@@ -192,21 +195,14 @@ public final class WorksheetWorker implements ActionListener {
 
         if (obj == null) throw new IllegalArgumentException("can not remove null object.");
 
-        undoManager.addEdit(new AbstractUndoableEdit() {
-            private final Set<SphericalObject> alles = new HashSet<SphericalObject>();
+        record(new AbstractUndoableEdit() {
+            private final List<SphericalObject> alles = inConstructionOrder(descendants(obj));
 
             {
-                upload(obj);
                 super.undo();
                 redo();
             }
 
-            private void upload(SphericalObject o) {
-                this.alles.add(o);
-                for (SphericalObject child : o.getChildren())
-                    upload(child);
-            }
-
             public void redo() {
                 super.redo();
                 worksheet.getConstruction().remove(obj);
@@ -221,33 +217,221 @@ public final class WorksheetWorker implements ActionListener {
 
     }
 
+    /**
+     * Collects an object and its descendants, each once, parents first.
+     *
+     * @param obj root object
+     * @return the object and its descendants
+     */
+    private static List<SphericalObject> descendants(SphericalObject obj) {
+        final Set<SphericalObject> seen = Collections.newSetFromMap(new IdentityHashMap<SphericalObject, Boolean>());
+        final List<SphericalObject> result = new ArrayList<SphericalObject>();
+        final Deque<SphericalObject> todo = new ArrayDeque<SphericalObject>();
+        todo.push(obj);
+        while (!todo.isEmpty()) {
+            final SphericalObject o = todo.pop();
+            if (!seen.add(o))
+                continue;
+            result.add(o);
+            final List<SphericalObject> children = new ArrayList<SphericalObject>();
+            for (SphericalObject child : o.getChildren())
+                children.add(child);
+            for (int i = children.size(); i-- > 0; )
+                todo.push(children.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Sorts objects of the construction to their order in it, so restoring
+     * them keeps their original order.
+     *
+     * @param objects objects of the construction
+     * @return the objects in order of the construction
+     */
+    private List<SphericalObject> inConstructionOrder(List<SphericalObject> objects) {
+        final Set<SphericalObject> set = Collections.newSetFromMap(new IdentityHashMap<SphericalObject, Boolean>());
+        set.addAll(objects);
+        final List<SphericalObject> result = new ArrayList<SphericalObject>(objects.size());
+        for (SphericalObject o : worksheet.getConstruction().snapshot())
+            if (set.remove(o))
+                result.add(o);
+        for (SphericalObject o : objects)
+            if (set.contains(o))
+                result.add(o);
+        return result;
+    }
+
     public void change(final SphericalObject o, final String key, final Object newValue) {
         if (!worksheet.getConstruction().contains(o))
             return;
 
         final Object oldValue = o.getAppearance().get(key);
 
-        if (((oldValue == null) && (newValue == null)) || (oldValue.equals(newValue)))
+        if (oldValue == null ? newValue == null : oldValue.equals(newValue))
             return;
 
-        o.getAppearance().put(key, newValue);
-        undoManager.addEdit(new AbstractUndoableEdit() {
+        put(o, key, newValue);
+        record(new AbstractUndoableEdit() {
 
             public void redo() {
                 super.redo();
-                o.getAppearance().put(key, newValue);
+                put(o, key, newValue);
             }
 
             public void undo() {
                 super.undo();
-                o.getAppearance().put(key, oldValue);
+                put(o, key, oldValue);
             }
         });
     }
 
+    /**
+     * Sets or removes an appearance property. The appearance maps are read
+     * concurrently by the painters, hence do not hold null values.
+     */
+    private static void put(SphericalObject o, String key, Object value) {
+        if (value == null)
+            o.getAppearance().remove(key);
+        else
+            o.getAppearance().put(key, value);
+    }
+
     public void update() {
-        for (SphericalObject obj : worksheet.getConstruction())
-            obj.update();
+        worksheet.getScheduler().update();
+    }
+
+    /**
+     * Moves a free point to a new location. The move can be undone.
+     *
+     * @param point    free point to move
+     * @param location new location of the point
+     */
+    public void move(final FreePoint point, final UnitVector location) {
+        final UnitVector previous = point.getLocationImpl();
+
+        point.setLocation(location);
+        record(new AbstractUndoableEdit() {
+
+            public void redo() {
+                super.redo();
+                point.setLocation(location);
+            }
+
+            public void undo() {
+                super.undo();
+                point.setLocation(previous);
+            }
+        });
+    }
+
+    /**
+     * Moves a parametric point along its curve. The move can be undone.
+     *
+     * @param point parametric point to move
+     * @param param new parameter of the point
+     */
+    public void move(final ParametricPoint point, final double param) {
+        final double previous = point.getParam();
+
+        point.setParam(param);
+        record(new AbstractUndoableEdit() {
+
+            public void redo() {
+                super.redo();
+                point.setParam(param);
+            }
+
+            public void undo() {
+                super.undo();
+                point.setParam(previous);
+            }
+        });
+    }
+
+    /**
+     * Starts a transaction. Changes made until the matching {@link #commit()}
+     * are undone as a single edit, the invalidated objects are updated once
+     * and the change listeners are notified once, on commit. Transactions
+     * may be nested, the outermost one counts. Transactions are kept per
+     * thread, only one thread at a time groups its edits for undo. Both
+     * calls must be made by the same thread, commit in a finally block so a
+     * failed change does not leave the transaction open:
+     * <pre>
+     * worker.begin();
+     * try {
+     *     ...
+     * } finally {
+     *     worker.commit();
+     * }
+     * </pre>
+     */
+    public void begin() {
+        final boolean group;
+        synchronized (worksheet) {
+            group = transactions.get()[0]++ == 0 && owner == null;
+            if (group)
+                owner = Thread.currentThread();
+            worksheet.beginBatch();
+        }
+        if (group)
+            undoManager.pushUndoable();
+    }
+
+    /**
+     * Commits the transaction started by {@link #begin()} in the calling
+     * thread.
+     */
+    public void commit() {
+        final int[] depth = transactions.get();
+        final boolean outermost, group;
+        synchronized (worksheet) {
+            if (depth[0] == 0)
+                throw new IllegalStateException("no transaction to commit.");
+            worksheet.endBatch();
+            outermost = --depth[0] == 0;
+            group = outermost && owner == Thread.currentThread();
+            if (group)
+                owner = null;
+        }
+        // popping the group notifies the listeners.
+        if (group)
+            undoManager.popUndoable();
+        else if (outermost)
+            fire();
+    }
+
+    /**
+     * Commits all open transactions of the calling thread, like the ones left
+     * open by a failed script.
+     */
+    void commitAll() {
+        while (inTransaction())
+            commit();
+    }
+
+    /**
+     * @return true iff the calling thread has an open transaction.
+     */
+    public boolean inTransaction() {
+        return transactions.get()[0] > 0;
+    }
+
+    /**
+     * Records an edit. Edits of a thread are grouped by its transaction, the
+     * edits of other threads meanwhile are recorded outside of the group.
+     *
+     * @param edit edit to record
+     */
+    private void record(UndoableEdit edit) {
+        final Thread t;
+        synchronized (worksheet) {
+            t = owner;
+        }
+        if (t == null || t == Thread.currentThread())
+            undoManager.addEdit(edit);
+        else
+            undoManager.addEditOutside(edit);
     }
 
     public void fire() {
@@ -268,7 +452,8 @@ public final class WorksheetWorker implements ActionListener {
 
     @Override
     public void actionPerformed(ActionEvent e) {
-        fire();
+        if (!inTransaction())
+            fire();
     }
 
 